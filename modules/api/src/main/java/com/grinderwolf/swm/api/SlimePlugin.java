@@ -134,6 +134,44 @@ public interface SlimePlugin {
 
     CompletableFuture<SlimeWorld> importWorldAsync(Path worldDir, String worldName, SlimeLoader loader);
 
+    /**
+     * Declares a pool of instances of a template world. The plugin keeps up to {@code targetSize}
+     * in-memory instances of the template ready in the background, so {@link #takeInstanceAsync(String)}
+     * can hand them out without reading nor decoding the template. Declaring a pool for a template
+     * that already has one replaces it.
+     *
+     * @param loader {@link SlimeLoader} used to retrieve the template.
+     * @param templateName Name of the template world.
+     * @param targetSize Amount of instances to keep ready.
+     * @param propertyMap A {@link SlimePropertyMap} object with the properties overriding the ones of the template.
+     */
+    void registerInstancePool(SlimeLoader loader, String templateName, int targetSize, SlimePropertyMap propertyMap);
+
+    /**
+     * Removes the pool of instances of a template world, dropping its ready instances.
+     *
+     * @param templateName Name of the template world.
+     */
+    void unregisterInstancePool(String templateName);
+
+    /**
+     * Takes a ready instance out of the pool of a template world, and refills the pool in the background.
+     * If no instance is ready yet, the template is cloned right away if it's in memory already, and its
+     * chunks are decoded once they're needed. Otherwise, the instance is created in the background, and the
+     * returned future fails with the exceptions {@link #loadWorld(SlimeLoader, String, boolean, SlimePropertyMap)}
+     * would throw. The calling thread never waits for the data source.
+     * <p>
+     * Instances are read-only and named after their template, followed by an increasing number.
+     * They can then be added to the server's world list by using the {@link #generateWorld(SlimeWorld)} method.
+     *
+     * @param templateName Name of the template world.
+     *
+     * @return A future completed with a {@link SlimeWorld}, which is the in-memory representation of the instance.
+     *
+     * @throws IllegalArgumentException if no pool has been declared for the template.
+     */
+    CompletableFuture<SlimeWorld> takeInstanceAsync(String templateName);
+
     /**
      * Returns the {@link SlimeLoader} that is able to
      * read and store worlds from a specified data source.
@@ -3,8 +3,14 @@ package com.grinderwolf.swm.api.loader;
 import com.grinderwolf.swm.api.exception.UnknownWorldException;
 import com.grinderwolf.swm.api.exception.WorldInUseException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * SlimeLoaders are in charge of loading worlds
@@ -27,6 +33,47 @@ public interface SlimeLoader {
      */
     byte[] loadWorld(String worldName, boolean readOnly) throws UnknownWorldException, WorldInUseException, IOException;
 
+    /**
+     * Opens a stream over a world's data file. Locking works the
+     * same way as in {@link #loadWorld(String, boolean)}.
+     * <p>
+     * Loaders should override this method to stream straight from their storage,
+     * as the default implementation loads the whole world in memory first.
+     *
+     * @param worldName The name of the world.
+     * @param readOnly  If false, a {@link WorldInUseException} should be thrown when the world is locked.
+     * @return An {@link InputStream} over the world's data file, which must be closed by the caller.
+     * @throws UnknownWorldException if the world cannot be found.
+     * @throws WorldInUseException   if the world is locked
+     * @throws IOException           if the world could not be obtained.
+     */
+    default InputStream openWorldStream(String worldName, boolean readOnly) throws UnknownWorldException, WorldInUseException, IOException {
+        return new ByteArrayInputStream(loadWorld(worldName, readOnly));
+    }
+
+    /**
+     * Opens a stream over a world's data file without blocking the calling thread. Locking
+     * works the same way as in {@link #loadWorld(String, boolean)}, and the returned future
+     * fails with the exceptions that method would throw.
+     * <p>
+     * The default implementation runs {@link #openWorldStream(String, boolean)} in the given
+     * executor, so the world is streamed just like it is when it's opened synchronously.
+     *
+     * @param worldName The name of the world.
+     * @param readOnly  If false, the future should fail with a {@link WorldInUseException} when the world is locked.
+     * @param executor  The executor blocking I/O may run in, which bounds how many worlds are opened at once.
+     * @return A future completed with an {@link InputStream} over the world's data file, which must be closed by the caller.
+     */
+    default CompletableFuture<InputStream> openWorldStreamAsync(String worldName, boolean readOnly, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return openWorldStream(worldName, readOnly);
+            } catch (UnknownWorldException | WorldInUseException | IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
     /**
      * Checks whether or not a world exists
      * inside the data source.
@@ -37,6 +84,20 @@ public interface SlimeLoader {
      */
     boolean worldExists(String worldName) throws IOException;
 
+    /**
+     * Gets a token identifying the current contents of a world's data file. The token
+     * must change whenever the world is saved or a delta record is appended to it, so
+     * in-memory copies of the world can tell whether they're still up to date.
+     *
+     * @param worldName The name of the world.
+     * @return The content version of the world, or <code>null</code> if this loader can't tell it.
+     * @throws UnknownWorldException if the world could not be found.
+     * @throws IOException           if the world could not be obtained.
+     */
+    default String getContentVersion(String worldName) throws UnknownWorldException, IOException {
+        return null;
+    }
+
     /**
      * Returns the current saved world names.
      *
@@ -56,6 +117,76 @@ public interface SlimeLoader {
      */
     void saveWorld(String worldName, byte[] serializedWorld, boolean lock) throws IOException;
 
+    /**
+     * Saves the world's data file by streaming it into the data source.
+     * This method will also lock the world, in case it's not locked already.
+     * The new data file replaces every delta record appended to the old one.
+     * <p>
+     * Loaders should override this method to write straight into their storage,
+     * as the default implementation buffers the whole world in memory.
+     *
+     * @param worldName The name of the world.
+     * @param writer    The {@link WorldDataWriter} producing the world's data file.
+     * @param lock      Whether or not the world should be relocked.
+     * @throws IOException if the world could not be saved.
+     */
+    default void saveWorld(String worldName, WorldDataWriter writer, boolean lock) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writer.writeTo(stream);
+        saveWorld(worldName, stream.toByteArray(), lock);
+    }
+
+    /**
+     * Saves the world's data file without blocking the calling thread, streaming it into
+     * the data source like {@link #saveWorld(String, WorldDataWriter, boolean)} does. The
+     * writer is called from the thread doing the save, and the returned future fails with
+     * the exceptions that method would throw.
+     * <p>
+     * The default implementation runs {@link #saveWorld(String, WorldDataWriter, boolean)} in the given
+     * executor. Loaders overriding this method must still do their blocking I/O in it, as it's what
+     * bounds how many worlds are saved at once.
+     *
+     * @param worldName The name of the world.
+     * @param writer    The {@link WorldDataWriter} producing the world's data file.
+     * @param lock      Whether or not the world should be relocked.
+     * @param executor  The executor blocking I/O may run in, which bounds how many worlds are saved at once.
+     * @return A future completed once the world has been saved.
+     */
+    default CompletableFuture<Void> saveWorldAsync(String worldName, WorldDataWriter writer, boolean lock, Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                saveWorld(worldName, writer, lock);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Checks whether this loader can append delta records to a world's data file,
+     * through {@link #appendDelta(String, WorldDataWriter)}.
+     *
+     * @return <code>true</code> if delta records are supported, <code>false</code> otherwhise.
+     */
+    default boolean supportsDeltas() {
+        return false;
+    }
+
+    /**
+     * Appends a delta record to the world's data file. Delta records hold the chunks
+     * modified since the previous save, and must be returned right after the data file
+     * by {@link #openWorldStream(String, boolean)}, in the same order they were appended.
+     * They're folded into the data file by saving the whole world again.
+     *
+     * @param worldName The name of the world.
+     * @param writer    The {@link WorldDataWriter} producing the delta record.
+     * @throws UnknownWorldException if the world could not be found.
+     * @throws IOException           if the delta record could not be saved.
+     */
+    default void appendDelta(String worldName, WorldDataWriter writer) throws UnknownWorldException, IOException {
+        throw new UnsupportedOperationException("This loader doesn't support delta records!");
+    }
+
     /**
      * Unlocks a world.
      *
@@ -0,0 +1,21 @@
+package com.grinderwolf.swm.api.loader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a serialized world into a stream provided by a {@link SlimeLoader}.
+ */
+@FunctionalInterface
+public interface WorldDataWriter {
+
+    /**
+     * Writes the world's data file into the provided stream.
+     * The stream must not be closed by this method.
+     *
+     * @param stream The stream to write the world data into.
+     * @throws IOException if the world could not be written.
+     */
+    void writeTo(OutputStream stream) throws IOException;
+
+}
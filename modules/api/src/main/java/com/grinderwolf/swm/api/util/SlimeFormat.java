@@ -9,6 +9,6 @@ public class SlimeFormat {
     public static final byte[] SLIME_HEADER = new byte[] { -79, 11 };
 
     /** Latest version of the SRF that SWM supports **/
-    public static final byte SLIME_VERSION = 9;
+    public static final byte SLIME_VERSION = 17;
 
 }
@@ -41,7 +41,8 @@ public interface SlimeWorld {
 
     /**
      * Returns a {@link Map} with every {@link SlimeChunk} that is
-     * currently loaded in this slime world.
+     * currently loaded in this slime world. Chunks are keyed by their
+     * packed coordinates: <code>((long) z &lt;&lt; 32) | (x &amp; 0xFFFFFFFFL)</code>.
      *
      * @return A {@link Map} containing every loaded chunk.
      */
@@ -81,6 +82,10 @@ public interface SlimeWorld {
     /**
      * Returns a clone of the world with the given name. This world will never be
      * stored, as the <code>readOnly</code> property will be set to true.
+     * <p>
+     * Cloning takes constant time: both worlds share their chunks until
+     * either of them replaces one, so many instances of the same template
+     * only hold a single copy of its chunk data.
      *
      * @param worldName The name of the cloned world.
      *
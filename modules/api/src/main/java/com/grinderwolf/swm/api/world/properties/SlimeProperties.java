@@ -73,4 +73,36 @@ public class SlimeProperties {
      */
     public static final SlimeProperty<String> DEFAULT_BIOME = new SlimePropertyString("defaultBiome", "minecraft:plains");
 
+    /**
+     * Whether chunks should be kept compressed until they're requested
+     */
+    public static final SlimeProperty<Boolean> LAZY_CHUNKS = new SlimePropertyBoolean("lazyChunks", false);
+
+    /**
+     * The codec used to compress the world when it's saved
+     */
+    public static final SlimeProperty<String> COMPRESSION_CODEC = new SlimePropertyString("compressionCodec", "zstd", (value) ->
+        value.equalsIgnoreCase("zstd") || value.equalsIgnoreCase("lz4") || value.equalsIgnoreCase("none")
+    );
+
+    /**
+     * The compression level, from -7 (fastest) to 22 (smallest)
+     */
+    public static final SlimeProperty<Integer> COMPRESSION_LEVEL = new SlimePropertyInt("compressionLevel", 3, (value) ->
+        value >= -7 && value <= 22
+    );
+
+    /**
+     * Whether zstd long distance matching should be enabled
+     */
+    public static final SlimeProperty<Boolean> LONG_DISTANCE_MATCHING = new SlimePropertyBoolean("longDistanceMatching", false);
+
+    /**
+     * Which light data is stored when the world is saved. Light that isn't
+     * stored gets recomputed by the light engine once its chunk is loaded
+     */
+    public static final SlimeProperty<String> LIGHT_STORAGE = new SlimePropertyString("lightStorage", "full", (value) ->
+        value.equalsIgnoreCase("full") || value.equalsIgnoreCase("hybrid") || value.equalsIgnoreCase("none")
+    );
+
 }
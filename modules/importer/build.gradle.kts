@@ -8,6 +8,7 @@ dependencies {
 
     packaged(libs.chalk)
     packaged(libs.zstdJni)
+    packaged(libs.lz4Java)
 }
 
 tasks.jar {
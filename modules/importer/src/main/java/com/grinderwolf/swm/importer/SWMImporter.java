@@ -2,16 +2,17 @@ package com.grinderwolf.swm.importer;
 
 import com.flowpowered.nbt.*;
 import com.flowpowered.nbt.stream.NBTInputStream;
-import com.flowpowered.nbt.stream.NBTOutputStream;
-import com.github.luben.zstd.Zstd;
 import com.github.tomaslanger.chalk.Chalk;
 import com.grinderwolf.swm.api.exception.InvalidWorldException;
 import com.grinderwolf.swm.api.util.NibbleArray;
-import com.grinderwolf.swm.api.util.SlimeFormat;
 import com.grinderwolf.swm.api.world.SlimeChunk;
 import com.grinderwolf.swm.api.world.SlimeChunkSection;
+import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import com.grinderwolf.swm.nms.ChunkMap;
 import com.grinderwolf.swm.nms.CraftSlimeChunk;
 import com.grinderwolf.swm.nms.CraftSlimeChunkSection;
+import com.grinderwolf.swm.nms.CraftSlimeWorld;
+import com.grinderwolf.swm.nms.WorldPalette;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -394,213 +395,33 @@ public class SWMImporter {
     }
 
     private static byte[] generateSlimeWorld(List<SlimeChunk> chunks, byte worldVersion, LevelData levelData, List<CompoundTag> worldMaps) {
-        List<SlimeChunk> sortedChunks = new ArrayList<>(chunks);
-        sortedChunks.sort(Comparator.comparingLong(chunk -> (long) chunk.getZ() * Integer.MAX_VALUE + (long) chunk.getX()));
-
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
-        DataOutputStream outStream = new DataOutputStream(outByteStream);
-
-        try {
-            // File Header and Slime version
-            outStream.write(SlimeFormat.SLIME_HEADER);
-            outStream.write(SlimeFormat.SLIME_VERSION);
-
-            // World version
-            outStream.writeByte(worldVersion);
-
-            // Lowest chunk coordinates
-            int minX = sortedChunks.stream().mapToInt(SlimeChunk::getX).min().orElseThrow();
-            int minZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).min().orElseThrow();
-            int maxX = sortedChunks.stream().mapToInt(SlimeChunk::getX).max().orElseThrow();
-            int maxZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).max().orElseThrow();
-
-            outStream.writeShort(minX);
-            outStream.writeShort(minZ);
-
-            // Width and depth
-            int width = maxX - minX + 1;
-            int depth = maxZ - minZ + 1;
-
-            outStream.writeShort(width);
-            outStream.writeShort(depth);
-
-            // Chunk Bitmask
-            BitSet chunkBitset = new BitSet(width * depth);
-            for (SlimeChunk chunk : sortedChunks) {
-                int bitsetIndex = (chunk.getZ() - minZ) * width + (chunk.getX() - minX);
-                chunkBitset.set(bitsetIndex, true);
-            }
-
-            int chunkMaskSize = (int) Math.ceil((width * depth) / 8.0D);
-            writeBitSetAsBytes(outStream, chunkBitset, chunkMaskSize);
-
-            // Chunks
-            byte[] chunkData = serializeChunks(sortedChunks, worldVersion);
-            byte[] compressedChunkData = Zstd.compress(chunkData);
-
-            outStream.writeInt(compressedChunkData.length);
-            outStream.writeInt(chunkData.length);
-            outStream.write(compressedChunkData);
-
-            // Tile Entities
-            List<CompoundTag> tileEntitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getTileEntities().stream()).collect(Collectors.toList());
-            ListTag<CompoundTag> tileEntitiesNbtList = new ListTag<>("tiles", TagType.TAG_COMPOUND, tileEntitiesList);
-            CompoundTag tileEntitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(tileEntitiesNbtList)));
-            byte[] tileEntitiesData = serializeCompoundTag(tileEntitiesCompound);
-            byte[] compressedTileEntitiesData = Zstd.compress(tileEntitiesData);
-
-            outStream.writeInt(compressedTileEntitiesData.length);
-            outStream.writeInt(tileEntitiesData.length);
-            outStream.write(compressedTileEntitiesData);
-
-            // Entities
-            List<CompoundTag> entitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getEntities().stream()).collect(Collectors.toList());
-            outStream.writeBoolean(!entitiesList.isEmpty());
-
-            if (!entitiesList.isEmpty()) {
-                ListTag<CompoundTag> entitiesNbtList = new ListTag<>("entities", TagType.TAG_COMPOUND, entitiesList);
-                CompoundTag entitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(entitiesNbtList)));
-                byte[] entitiesData = serializeCompoundTag(entitiesCompound);
-                byte[] compressedEntitiesData = Zstd.compress(entitiesData);
-
-                outStream.writeInt(compressedEntitiesData.length);
-                outStream.writeInt(entitiesData.length);
-                outStream.write(compressedEntitiesData);
-            }
-
-            // Extra Tag
-            CompoundMap extraMap = new CompoundMap();
-            if (!levelData.gameRules().isEmpty()) {
-                CompoundMap gamerules = new CompoundMap();
-                levelData.gameRules().forEach((rule, value) -> gamerules.put(rule, new StringTag(rule, value)));
-                extraMap.put("gamerules", new CompoundTag("gamerules", gamerules));
-            }
-
-            byte[] extraData = serializeCompoundTag(new CompoundTag("", extraMap));
-            byte[] compressedExtraData = Zstd.compress(extraData);
-
-            outStream.writeInt(compressedExtraData.length);
-            outStream.writeInt(extraData.length);
-            outStream.write(compressedExtraData);
-
-            // World Maps
-            CompoundMap map = new CompoundMap();
-            map.put("maps", new ListTag<>("maps", TagType.TAG_COMPOUND, worldMaps));
-
-            CompoundTag mapsCompound = new CompoundTag("", map);
-            byte[] mapArray = serializeCompoundTag(mapsCompound);
-            byte[] compressedMapArray = Zstd.compress(mapArray);
-
-            outStream.writeInt(compressedMapArray.length);
-            outStream.writeInt(mapArray.length);
-            outStream.write(compressedMapArray);
-        } catch (IOException ex) { // Ignore
-            //noinspection CallToPrintStackTrace
-            ex.printStackTrace();
+        ChunkMap chunkMap = new ChunkMap();
+        for (SlimeChunk chunk : chunks)
+            chunkMap.put(ChunkMap.key(chunk.getX(), chunk.getZ()), chunk);
+
+        // Extra Tag
+        CompoundMap extraMap = new CompoundMap();
+        if (!levelData.gameRules().isEmpty()) {
+            CompoundMap gamerules = new CompoundMap();
+            levelData.gameRules().forEach((rule, value) -> gamerules.put(rule, new StringTag(rule, value)));
+            extraMap.put("gamerules", new CompoundTag("gamerules", gamerules));
         }
 
-        return outByteStream.toByteArray();
-    }
-
-    private static void writeBitSetAsBytes(DataOutputStream outStream, BitSet set, int fixedSize) throws IOException {
-        byte[] array = set.toByteArray();
-        outStream.write(array);
-
-        int chunkMaskPadding = fixedSize - array.length;
-
-        for (int i = 0; i < chunkMaskPadding; i++) {
-            outStream.write(0);
-        }
-    }
-
-    private static byte[] serializeChunks(List<SlimeChunk> chunks, byte worldVersion) throws IOException {
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream(16384);
-        DataOutputStream outStream = new DataOutputStream(outByteStream);
-
-        for (SlimeChunk chunk : chunks) {
-            // Height Maps
-            if (worldVersion >= 0x04) {
-                byte[] heightMaps = serializeCompoundTag(chunk.getHeightMaps());
-                outStream.writeInt(heightMaps.length);
-                outStream.write(heightMaps);
-            } else {
-                int[] heightMap = chunk.getHeightMaps().getIntArrayValue("heightMap").orElseThrow();
-                for (int i = 0; i < 256; i++) {
-                    outStream.writeInt(heightMap[i]);
-                }
-            }
-
-            // Biomes
-            int[] biomes = chunk.getBiomes();
-            if (worldVersion >= 0x04)
-                outStream.writeInt(biomes.length);
-
-            for (int biome : biomes)
-                outStream.writeInt(biome);
-
-            // Chunk sections
-            SlimeChunkSection[] sections = chunk.getSections();
-            BitSet sectionBitmask = new BitSet(16);
-
-            for (int i = 0; i < sections.length; i++)
-                sectionBitmask.set(i, sections[i] != null);
-
-            writeBitSetAsBytes(outStream, sectionBitmask, 2);
-
-            for (SlimeChunkSection section : sections) {
-                if (section == null)
-                    continue;
-
-                // Block Light
-                boolean hasBlockLight = section.blockLight() != null;
-                outStream.writeBoolean(hasBlockLight);
-
-                if (hasBlockLight)
-                    outStream.write(section.blockLight().getBacking());
-
-                // Block Data
-                if (worldVersion >= 0x04) {
-                    // Palette
-                    List<CompoundTag> palette = section.palette().getValue();
-                    outStream.writeInt(palette.size());
-
-                    for (CompoundTag value : palette) {
-                        byte[] serializedValue = serializeCompoundTag(value);
-
-                        outStream.writeInt(serializedValue.length);
-                        outStream.write(serializedValue);
-                    }
-
-                    // Block states
-                    long[] blockStates = section.blockStates();
-                    outStream.writeInt(blockStates.length);
-
-                    for (long value : section.blockStates()) {
-                        outStream.writeLong(value);
-                    }
-                } else {
-                    outStream.write(section.blocks());
-                    outStream.write(section.data().getBacking());
-                }
-
-                // Sky Light
-                boolean hasSkyLight = section.skyLight() != null;
-                outStream.writeBoolean(hasSkyLight);
-
-                if (hasSkyLight) {
-                    outStream.write(section.skyLight().getBacking());
-                }
-            }
-        }
-
-        return outByteStream.toByteArray();
-    }
-
-    private static byte[] serializeCompoundTag(CompoundTag tag) throws IOException {
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
-        NBTOutputStream outStream = new NBTOutputStream(outByteStream, NBTInputStream.NO_COMPRESSION, ByteOrder.BIG_ENDIAN);
-        outStream.writeTag(tag);
-        return outByteStream.toByteArray();
+        // Same writer as the plugin, so imported worlds always use the latest format
+        CraftSlimeWorld world = new CraftSlimeWorld(
+                null,
+                "",
+                chunkMap,
+                new CompoundTag("", extraMap),
+                worldMaps,
+                new WorldPalette(),
+                worldVersion,
+                new SlimePropertyMap(),
+                true,
+                false
+        );
+
+        return world.serialize();
     }
 
 }
@@ -8,4 +8,5 @@ dependencies {
     compileOnlyApi(libs.paperApi)
 
     implementation(libs.zstdJni)
+    implementation(libs.lz4Java)
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package com.grinderwolf.swm.nms;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps track of the chunks modified since a world was last saved,
+ * and of the delta records appended after its base snapshot.
+ */
+final class ChunkDeltaTracker {
+
+    private static final int MAX_DELTAS = 64;
+
+    private final Set<Long> dirtyChunks = new HashSet<>();
+
+    private boolean baseSaved = false;
+    private byte baseWorldVersion;
+    private long baseSize;
+    private long deltasSize;
+    private int deltaCount;
+
+    synchronized void markDirty(int x, int z) {
+        dirtyChunks.add(ChunkMap.key(x, z));
+    }
+
+    synchronized Set<Long> drainDirtyChunks() {
+        Set<Long> drained = new HashSet<>(dirtyChunks);
+        dirtyChunks.clear();
+        return drained;
+    }
+
+    /**
+     * Gives back the chunks of a save that failed, so they're written by the next one.
+     */
+    synchronized void restoreDirtyChunks(Set<Long> chunks) {
+        dirtyChunks.addAll(chunks);
+    }
+
+    /**
+     * Deltas can only be appended to a base snapshot written by this
+     * world instance, as older ones might use another format version.
+     */
+    synchronized boolean canAppend(byte worldVersion) {
+        return baseSaved && baseWorldVersion == worldVersion;
+    }
+
+    /**
+     * Deltas are folded once there are too many of them to replay on load,
+     * or once they take up more space than a fresh snapshot would save.
+     */
+    synchronized boolean needsCompaction() {
+        return baseSaved && (deltaCount >= MAX_DELTAS || deltasSize > baseSize / 2);
+    }
+
+    synchronized void deltaAppended(long size) {
+        deltaCount++;
+        deltasSize += size;
+    }
+
+    /**
+     * A failed append may have left part of its record behind, which the records appended
+     * after it couldn't be told apart from, so the whole world has to be saved next.
+     */
+    synchronized void deltaFailed() {
+        baseSaved = false;
+    }
+
+    synchronized void baseSaved(long size, byte worldVersion) {
+        baseSaved = true;
+        baseWorldVersion = worldVersion;
+        baseSize = size;
+        deltasSize = 0;
+        deltaCount = 0;
+    }
+
+}
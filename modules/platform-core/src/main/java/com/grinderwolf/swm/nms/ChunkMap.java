@@ -0,0 +1,455 @@
+package com.grinderwolf.swm.nms;
+
+import com.grinderwolf.swm.api.world.SlimeChunk;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent open-addressing map holding the chunks of a world, keyed by their
+ * packed coordinates (see {@link #key(int, int)}). Lookups never lock nor box
+ * their keys, while writes only lock the segment their key belongs to.
+ * <p>
+ * It can also be used as a regular {@link Map}, whose iterators are weakly
+ * consistent, just like the ones of {@link java.util.concurrent.ConcurrentHashMap}.
+ * <p>
+ * Maps can be forked in constant time: both maps share their segments
+ * until one of them writes to a segment, which copies it first.
+ */
+public class ChunkMap extends AbstractMap<Long, SlimeChunk> {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Removed entries keep their key until the next resize, so a slot never
+    // changes its key while lookups might be reading it without locking
+    private static final Object REMOVED = new Object();
+
+    private final Segment[] segments;
+
+    public ChunkMap() {
+        this.segments = new Segment[SEGMENT_COUNT];
+
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    private ChunkMap(Segment[] segments) {
+        this.segments = segments;
+    }
+
+    public ChunkMap(Map<Long, ? extends SlimeChunk> chunks) {
+        this();
+        putAll(chunks);
+    }
+
+    /**
+     * Packs the coordinates of a chunk into a map key.
+     *
+     * @param x The X coordinate of the chunk.
+     * @param z The Z coordinate of the chunk.
+     * @return The key of the chunk.
+     */
+    public static long key(int x, int z) {
+        return ((long) z << 32) | (x & 0xFFFFFFFFL);
+    }
+
+    public static int getX(long key) {
+        return (int) key;
+    }
+
+    public static int getZ(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Creates a copy of this map, sharing its segments until either map writes to them.
+     *
+     * @return The copy of this map.
+     */
+    public ChunkMap fork() {
+        Segment[] forkedSegments = new Segment[SEGMENT_COUNT];
+
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            forkedSegments[i] = segments[i].fork();
+        }
+
+        return new ChunkMap(forkedSegments);
+    }
+
+    public SlimeChunk get(long key) {
+        long hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public SlimeChunk put(long key, SlimeChunk chunk) {
+        Objects.requireNonNull(chunk, "Chunk cannot be null");
+
+        long hash = hash(key);
+        return segmentFor(hash).put(key, hash, chunk);
+    }
+
+    public SlimeChunk remove(long key) {
+        long hash = hash(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    /**
+     * Replaces a chunk, only if it's still mapped to the expected one.
+     *
+     * @param key      The key of the chunk.
+     * @param expected The chunk that's expected to be mapped to the key.
+     * @param chunk    The new chunk.
+     * @return <code>true</code> if the chunk was replaced, <code>false</code> otherwise.
+     */
+    public boolean replace(long key, SlimeChunk expected, SlimeChunk chunk) {
+        Objects.requireNonNull(chunk, "Chunk cannot be null");
+
+        long hash = hash(key);
+        return segmentFor(hash).replace(key, hash, expected, chunk);
+    }
+
+    @Override
+    public SlimeChunk get(Object key) {
+        return key instanceof Long longKey ? get(longKey.longValue()) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public SlimeChunk put(Long key, SlimeChunk chunk) {
+        return put(key.longValue(), chunk);
+    }
+
+    @Override
+    public SlimeChunk remove(Object key) {
+        return key instanceof Long longKey ? remove(longKey.longValue()) : null;
+    }
+
+    @Override
+    public boolean replace(Long key, SlimeChunk expected, SlimeChunk chunk) {
+        return replace(key.longValue(), expected, chunk);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public Set<Entry<Long, SlimeChunk>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<Long, SlimeChunk>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return ChunkMap.this.size();
+            }
+
+        };
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    private static final class Table {
+
+        private final long[] keys;
+        private final AtomicReferenceArray<Object> values;
+        private final int threshold;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.threshold = capacity * 3 / 4;
+        }
+
+        private Table copy() {
+            Table table = new Table(keys.length);
+            System.arraycopy(keys, 0, table.keys, 0, keys.length);
+
+            for (int i = 0; i < keys.length; i++) {
+                table.values.set(i, values.get(i));
+            }
+
+            return table;
+        }
+
+    }
+
+    private static final class Segment {
+
+        private volatile Table table = new Table(INITIAL_CAPACITY);
+        private volatile int size;
+        private int usedSlots; // Live and removed entries
+        private boolean shared; // Whether the table is shared with a forked map
+
+        private synchronized Segment fork() {
+            shared = true;
+
+            Segment segment = new Segment();
+            segment.table = table;
+            segment.size = size;
+            segment.usedSlots = usedSlots;
+            segment.shared = true;
+
+            return segment;
+        }
+
+        /**
+         * Gets the table writes can be done on, copying it first if it's shared.
+         */
+        private Table writableTable() {
+            if (shared) {
+                table = table.copy();
+                shared = false;
+            }
+
+            return table;
+        }
+
+        private SlimeChunk get(long key, long hash) {
+            Table table = this.table;
+            int mask = table.keys.length - 1;
+
+            for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+                // Keys are written before their values, so reading the value first makes the key visible
+                Object value = table.values.get(index);
+
+                if (value == null)
+                    return null;
+
+                if (table.keys[index] == key)
+                    return value == REMOVED ? null : (SlimeChunk) value;
+            }
+        }
+
+        private synchronized SlimeChunk put(long key, long hash, SlimeChunk chunk) {
+            Table table = writableTable();
+            int mask = table.keys.length - 1;
+
+            for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+                Object value = table.values.get(index);
+
+                if (value == null) {
+                    table.keys[index] = key;
+                    table.values.set(index, chunk);
+                    size++;
+
+                    if (++usedSlots > table.threshold)
+                        resize();
+
+                    return null;
+                }
+
+                if (table.keys[index] == key) {
+                    table.values.set(index, chunk);
+
+                    if (value == REMOVED) {
+                        size++;
+                        return null;
+                    }
+
+                    return (SlimeChunk) value;
+                }
+            }
+        }
+
+        private synchronized SlimeChunk remove(long key, long hash) {
+            Table table = writableTable();
+            int mask = table.keys.length - 1;
+
+            for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+                Object value = table.values.get(index);
+
+                if (value == null)
+                    return null;
+
+                if (table.keys[index] == key) {
+                    if (value == REMOVED)
+                        return null;
+
+                    table.values.set(index, REMOVED);
+                    size--;
+                    return (SlimeChunk) value;
+                }
+            }
+        }
+
+        private synchronized boolean replace(long key, long hash, SlimeChunk expected, SlimeChunk chunk) {
+            Table table = writableTable();
+            int mask = table.keys.length - 1;
+
+            for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+                Object value = table.values.get(index);
+
+                if (value == null)
+                    return false;
+
+                if (table.keys[index] == key) {
+                    if (value != expected)
+                        return false;
+
+                    table.values.set(index, chunk);
+                    return true;
+                }
+            }
+        }
+
+        private synchronized void clear() {
+            table = new Table(INITIAL_CAPACITY);
+            shared = false;
+            size = 0;
+            usedSlots = 0;
+        }
+
+        /**
+         * Rehashes the live entries into a new table, dropping the removed ones.
+         * Lookups keep reading the old table until the new one is published.
+         */
+        private void resize() {
+            Table oldTable = table;
+
+            int capacity = INITIAL_CAPACITY;
+            while (capacity * 3 / 8 < size + 1) {
+                capacity <<= 1;
+            }
+
+            Table newTable = new Table(capacity);
+            int mask = capacity - 1;
+
+            for (int i = 0; i < oldTable.keys.length; i++) {
+                Object value = oldTable.values.get(i);
+
+                if (value == null || value == REMOVED)
+                    continue;
+
+                long key = oldTable.keys[i];
+                int index = (int) hash(key) & mask;
+
+                while (newTable.values.get(index) != null) {
+                    index = (index + 1) & mask;
+                }
+
+                newTable.keys[index] = key;
+                newTable.values.set(index, value);
+            }
+
+            usedSlots = size;
+            table = newTable;
+        }
+
+    }
+
+    private final class EntryIterator implements Iterator<Entry<Long, SlimeChunk>> {
+
+        private int segmentIndex = -1;
+        private Table table;
+        private int slotIndex;
+
+        private Entry<Long, SlimeChunk> next;
+        private Entry<Long, SlimeChunk> last;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+
+            while (true) {
+                if (table == null || slotIndex >= table.keys.length) {
+                    if (++segmentIndex >= SEGMENT_COUNT)
+                        return;
+
+                    table = segments[segmentIndex].table;
+                    slotIndex = 0;
+                }
+
+                while (slotIndex < table.keys.length) {
+                    int index = slotIndex++;
+                    Object value = table.values.get(index);
+
+                    if (value != null && value != REMOVED) {
+                        next = new ChunkEntry(table.keys[index], (SlimeChunk) value);
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<Long, SlimeChunk> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            last = next;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+
+            ChunkMap.this.remove(last.getKey().longValue());
+            last = null;
+        }
+
+    }
+
+    private final class ChunkEntry extends SimpleEntry<Long, SlimeChunk> {
+
+        private ChunkEntry(long key, SlimeChunk value) {
+            super(key, value);
+        }
+
+        @Override
+        public SlimeChunk setValue(SlimeChunk value) {
+            put(getKey().longValue(), value);
+            return super.setValue(value);
+        }
+
+    }
+
+}
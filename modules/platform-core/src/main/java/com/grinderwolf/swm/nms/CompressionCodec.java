@@ -0,0 +1,106 @@
+package com.grinderwolf.swm.nms;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+import com.github.luben.zstd.ZstdInputStream;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Codecs the chunk frames and NBT blocks of a world can be compressed
+ * with. The id of the codec is stored next to every frame and block.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum CompressionCodec {
+
+    NONE(0, "none"),
+    ZSTD(1, "zstd"),
+    LZ4(2, "lz4");
+
+    private static final CompressionCodec[] BY_ID = values();
+
+    private final int id;
+    private final String key;
+
+    public static CompressionCodec byId(int id) throws IOException {
+        if (id < 0 || id >= BY_ID.length)
+            throw new IOException("Unknown compression codec " + id);
+
+        return BY_ID[id];
+    }
+
+    public static CompressionCodec byKey(String key) {
+        for (CompressionCodec codec : BY_ID) {
+            if (codec.key.equalsIgnoreCase(key))
+                return codec;
+        }
+
+        throw new IllegalArgumentException("Unknown compression codec '" + key + "'!");
+    }
+
+    /**
+     * Decompresses a whole frame at once.
+     *
+     * @param frame              The compressed frame.
+     * @param uncompressedLength The size of the frame once decompressed.
+     * @param dictionary         The zstd dictionary the frame was compressed with, or <code>null</code> if none.
+     * @return The decompressed data.
+     * @throws IOException if the frame is corrupted.
+     */
+    public byte[] decompress(byte[] frame, int uncompressedLength, ZstdDictDecompress dictionary) throws IOException {
+        byte[] data;
+
+        try {
+            data = switch (this) {
+                case NONE -> frame;
+                case ZSTD -> {
+                    ZstdDecompressCtx context = CompressionContexts.decompressContext();
+                    if (dictionary != null)
+                        context.loadDict(dictionary);
+
+                    yield context.decompress(frame, uncompressedLength);
+                }
+                case LZ4 -> LZ4Factory.fastestInstance().safeDecompressor().decompress(frame, uncompressedLength);
+            };
+        } catch (ZstdException | LZ4Exception ex) {
+            throw new IOException("Corrupted " + key + " frame", ex);
+        }
+
+        if (data.length != uncompressedLength)
+            throw new IOException("Corrupted " + key + " frame");
+
+        return data;
+    }
+
+    /**
+     * Wraps a stream over compressed data into a decompressing one.
+     *
+     * @param stream     The stream over the compressed data.
+     * @param dictionary The zstd dictionary the data was compressed with, or <code>null</code> if none.
+     * @return The decompressing stream.
+     * @throws IOException if the stream could not be created.
+     */
+    public InputStream decompressStream(InputStream stream, ZstdDictDecompress dictionary) throws IOException {
+        return switch (this) {
+            case NONE -> stream;
+            case ZSTD -> {
+                ZstdInputStream zstdStream = new ZstdInputStream(stream, RecyclingBufferPool.INSTANCE);
+                if (dictionary != null)
+                    zstdStream.setDict(dictionary);
+
+                yield zstdStream;
+            }
+            case LZ4 -> new LZ4FrameInputStream(stream);
+        };
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.grinderwolf.swm.nms;
+
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Per-thread zstd contexts. Creating a context allocates its whole working
+ * memory, so they're reused by every frame compressed on the same thread.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class CompressionContexts {
+
+    private static final ThreadLocal<ZstdCompressCtx> COMPRESS_CONTEXT = ThreadLocal.withInitial(ZstdCompressCtx::new);
+    private static final ThreadLocal<ZstdDecompressCtx> DECOMPRESS_CONTEXT = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+
+    /**
+     * Gets the compression context of the current thread, without
+     * any parameters or dictionary left from its previous use.
+     */
+    static ZstdCompressCtx compressContext() {
+        ZstdCompressCtx context = COMPRESS_CONTEXT.get();
+        context.reset();
+        return context;
+    }
+
+    /**
+     * Gets the decompression context of the current thread, without
+     * any dictionary left from its previous use.
+     */
+    static ZstdDecompressCtx decompressContext() {
+        ZstdDecompressCtx context = DECOMPRESS_CONTEXT.get();
+        context.reset();
+        return context;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.grinderwolf.swm.nms;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.grinderwolf.swm.api.world.properties.SlimeProperties;
+import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The compression settings a world is saved with.
+ *
+ * @param codec                The codec chunk frames and NBT blocks are compressed with.
+ * @param level                The compression level. LZ4 switches to its high compression mode from level 9.
+ * @param longDistanceMatching Whether zstd should look for matches across a larger window.
+ */
+public record CompressionSettings(CompressionCodec codec, int level, boolean longDistanceMatching) {
+
+    private static final int LONG_DISTANCE_WINDOW_LOG = 27; // Largest window zstd decoders accept by default
+    private static final int LZ4_HIGH_COMPRESSION_LEVEL = 9;
+    private static final int LZ4_MAX_LEVEL = 17;
+
+    public static CompressionSettings fromProperties(SlimePropertyMap propertyMap) {
+        return new CompressionSettings(
+                CompressionCodec.byKey(propertyMap.getValue(SlimeProperties.COMPRESSION_CODEC)),
+                propertyMap.getValue(SlimeProperties.COMPRESSION_LEVEL),
+                propertyMap.getValue(SlimeProperties.LONG_DISTANCE_MATCHING)
+        );
+    }
+
+    /**
+     * Compresses a whole frame at once.
+     *
+     * @param data         The data to compress.
+     * @param dictionaryId The id of the zstd dictionary to compress the data with.
+     * @return The compressed frame.
+     */
+    public byte[] compress(byte[] data, int dictionaryId) {
+        return switch (codec) {
+            case NONE -> data;
+            case ZSTD -> compressZstd(data, dictionaryId);
+            case LZ4 -> lz4Compressor().compress(data);
+        };
+    }
+
+    /**
+     * Compresses through pooled direct buffers, so the only array allocated
+     * is the frame itself instead of a worst-case sized one that gets trimmed.
+     */
+    private byte[] compressZstd(byte[] data, int dictionaryId) {
+        ZstdCompressCtx context = CompressionContexts.compressContext();
+        context.setLevel(level);
+        if (longDistanceMatching)
+            context.setLong(LONG_DISTANCE_WINDOW_LOG);
+
+        ZstdDictCompress dictionary = ZstdDictionaries.getCompressDictionary(dictionaryId, level);
+        if (dictionary != null)
+            context.loadDict(dictionary);
+
+        ByteBuffer source = DirectBufferPool.acquire(data.length);
+        ByteBuffer target = DirectBufferPool.acquire((int) Zstd.compressBound(data.length));
+
+        try {
+            source.put(data).flip();
+            context.compress(target, source);
+
+            byte[] frame = new byte[target.flip().remaining()];
+            target.get(frame);
+            return frame;
+        } finally {
+            DirectBufferPool.release(source);
+            DirectBufferPool.release(target);
+        }
+    }
+
+    /**
+     * Wraps a stream into a compressing one. Closing the
+     * returned stream also closes the provided one.
+     *
+     * @param stream       The stream the compressed data is written into.
+     * @param dictionaryId The id of the zstd dictionary to compress the data with.
+     * @return The compressing stream.
+     * @throws IOException if the stream could not be created.
+     */
+    public OutputStream compressStream(OutputStream stream, int dictionaryId) throws IOException {
+        return switch (codec) {
+            case NONE -> stream;
+            case ZSTD -> {
+                ZstdOutputStream zstdStream = new ZstdOutputStream(stream, RecyclingBufferPool.INSTANCE).setLevel(level);
+                if (longDistanceMatching)
+                    zstdStream.setLong(LONG_DISTANCE_WINDOW_LOG);
+
+                ZstdDictCompress dictionary = ZstdDictionaries.getCompressDictionary(dictionaryId, level);
+                if (dictionary != null)
+                    zstdStream.setDict(dictionary);
+
+                yield zstdStream;
+            }
+            case LZ4 -> new LZ4FrameOutputStream(
+                    stream,
+                    LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB,
+                    -1L,
+                    lz4Compressor(),
+                    XXHashFactory.fastestInstance().hash32(),
+                    LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE
+            );
+        };
+    }
+
+    private LZ4Compressor lz4Compressor() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        return level >= LZ4_HIGH_COMPRESSION_LEVEL
+                ? factory.highCompressor(Math.min(level, LZ4_MAX_LEVEL))
+                : factory.fastCompressor();
+    }
+
+}
@@ -6,34 +6,47 @@ import com.flowpowered.nbt.ListTag;
 import com.flowpowered.nbt.TagType;
 import com.flowpowered.nbt.stream.NBTInputStream;
 import com.flowpowered.nbt.stream.NBTOutputStream;
-import com.github.luben.zstd.Zstd;
+import com.grinderwolf.swm.api.exception.UnknownWorldException;
 import com.grinderwolf.swm.api.exception.WorldAlreadyExistsException;
 import com.grinderwolf.swm.api.loader.SlimeLoader;
+import com.grinderwolf.swm.api.util.NibbleArray;
 import com.grinderwolf.swm.api.util.SlimeFormat;
 import com.grinderwolf.swm.api.world.SlimeChunk;
 import com.grinderwolf.swm.api.world.SlimeChunkSection;
 import com.grinderwolf.swm.api.world.SlimeWorld;
 import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 @Getter @Setter
 @AllArgsConstructor
 public class CraftSlimeWorld implements SlimeWorld {
 
+    private static final int PARALLEL_CHUNK_THRESHOLD = 64; // Smaller worlds aren't worth splitting across threads
+    private static final int PARALLEL_FRAME_WINDOW = Runtime.getRuntime().availableProcessors() * 2; // Frames held until they're written
+
     private SlimeLoader loader;
     private final String name;
-    private final Map<Long, SlimeChunk> chunks;
+    private final ChunkMap chunks;
     private final CompoundTag extraData;
     private final List<CompoundTag> worldMaps;
+    private final WorldPalette palette;
 
     private byte version;
 
@@ -42,11 +55,30 @@ public class CraftSlimeWorld implements SlimeWorld {
     private final boolean readOnly;
     private final boolean locked;
 
+    @Getter(AccessLevel.NONE)
+    private final ChunkDeltaTracker deltaTracker = new ChunkDeltaTracker();
+
     @Override
     public SlimeChunk getChunk(int x, int z) {
-        synchronized (chunks) {
-            Long index = (((long) z) * Integer.MAX_VALUE + ((long) x));
-            return chunks.get(index);
+        SlimeChunk chunk = chunks.get(ChunkMap.key(x, z));
+
+        // Chunks shared with the world this one was cloned from are decoded once for all of them
+        if (chunk instanceof LazySlimeChunk lazyChunk)
+            return lazyChunk.decode();
+
+        return chunk;
+    }
+
+    /**
+     * Decodes every chunk that's still kept compressed, for
+     * operations that need the block data of the whole world.
+     */
+    public void decodeChunks() {
+        for (Map.Entry<Long, SlimeChunk> entry : chunks.entrySet()) {
+            if (entry.getValue() instanceof LazySlimeChunk lazyChunk) {
+                // The chunk might have been replaced by a newer one in the meantime
+                chunks.replace(entry.getKey().longValue(), lazyChunk, lazyChunk.decode());
+            }
         }
     }
 
@@ -58,9 +90,7 @@ public class CraftSlimeWorld implements SlimeWorld {
             );
         }
 
-        synchronized (chunks) {
-            chunks.put(((long) chunk.getZ()) * Integer.MAX_VALUE + ((long) chunk.getX()), chunk);
-        }
+        chunks.put(ChunkMap.key(chunk.getX(), chunk.getZ()), chunk);
     }
 
     @Override
@@ -79,6 +109,46 @@ public class CraftSlimeWorld implements SlimeWorld {
 
     @Override
     public SlimeWorld clone(String worldName, SlimeLoader loader, boolean lock) throws WorldAlreadyExistsException, IOException {
+        return clone(worldName, loader, lock, propertyMap);
+    }
+
+    /**
+     * Clones this world into an in-memory world with its own properties.
+     *
+     * @see #clone(String, SlimeLoader, SlimePropertyMap)
+     */
+    public CraftSlimeWorld clone(String worldName, SlimePropertyMap propertyMap) {
+        try {
+            return clone(worldName, null, propertyMap);
+        } catch (WorldAlreadyExistsException | IOException ignored) {
+            return null; // Never going to happen
+        }
+    }
+
+    /**
+     * Clones this world, giving the clone its own properties: the ones of this world
+     * overridden by the given ones. Unlike the other clone methods, the clone doesn't
+     * share its property map with this world, so it can be used to instance templates.
+     *
+     * @param worldName   The name of the cloned world.
+     * @param loader      The loader the cloned world will be saved with, or <code>null</code> to keep it in memory.
+     * @param propertyMap The properties overriding the ones of this world.
+     * @return The cloned world.
+     * @throws WorldAlreadyExistsException if the loader already holds a world with such name.
+     * @throws IOException                 if the cloned world could not be saved.
+     */
+    public CraftSlimeWorld clone(
+            String worldName, SlimeLoader loader, SlimePropertyMap propertyMap
+    ) throws WorldAlreadyExistsException, IOException {
+        SlimePropertyMap clonePropertyMap = new SlimePropertyMap(this.propertyMap.toCompound().clone().getValue());
+        clonePropertyMap.merge(propertyMap);
+
+        return clone(worldName, loader, true, clonePropertyMap);
+    }
+
+    private CraftSlimeWorld clone(
+            String worldName, SlimeLoader loader, boolean lock, SlimePropertyMap propertyMap
+    ) throws WorldAlreadyExistsException, IOException {
         if (name.equals(worldName))
             throw new IllegalArgumentException("The clone world cannot have the same name as the original world!");
 
@@ -88,39 +158,171 @@ public class CraftSlimeWorld implements SlimeWorld {
         if (loader != null && loader.worldExists(worldName))
             throw new WorldAlreadyExistsException(worldName);
 
-        CraftSlimeWorld world;
-
-        synchronized (chunks) {
-            world = new CraftSlimeWorld(
-                    loader == null ? this.loader : loader,
-                    worldName,
-                    new HashMap<>(chunks),
-                    extraData.clone(),
-                    new ArrayList<>(worldMaps),
-                    version,
-                    propertyMap,
-                    loader == null,
-                    lock
-            );
-        }
+        CraftSlimeWorld world = new CraftSlimeWorld(
+                loader == null ? this.loader : loader,
+                worldName,
+                chunks.fork(), // Chunks are replaced rather than modified, so they can be shared
+                extraData.clone(),
+                new ArrayList<>(worldMaps),
+                palette.fork(), // Keeps the entries the chunk frames refer to, without growing this palette
+                version,
+                propertyMap,
+                loader == null,
+                lock
+        );
 
         if (loader != null)
-            loader.saveWorld(worldName, world.serialize(), lock);
+            loader.saveWorld(worldName, world::serialize, lock);
 
         return world;
     }
 
+    /**
+     * Marks a chunk as modified, so it's written by the next incremental save.
+     *
+     * @param x The X coordinate of the chunk.
+     * @param z The Z coordinate of the chunk.
+     */
+    public void markChunkDirty(int x, int z) {
+        deltaTracker.markDirty(x, z);
+    }
+
+    /**
+     * Saves the world through its loader. If the loader supports delta records, only
+     * the chunks modified since the previous save are written, on top of the last base
+     * snapshot. Otherwise, or if there's no such snapshot yet, the whole world is saved.
+     *
+     * @throws IOException if the world could not be saved.
+     */
+    public void save() throws IOException {
+        if (!loader.supportsDeltas() || !deltaTracker.canAppend(version)) {
+            compact();
+            return;
+        }
+
+        Set<Long> dirtyChunks = deltaTracker.drainDirtyChunks();
+        long[] size = new long[1];
+
+        try {
+            loader.appendDelta(name, stream -> {
+                CountingOutputStream countingStream = new CountingOutputStream(stream);
+                serializeDelta(countingStream, dirtyChunks);
+                size[0] = countingStream.count;
+            });
+
+            deltaTracker.deltaAppended(size[0]);
+        } catch (UnknownWorldException ex) { // The world was deleted in the meantime, so there's nothing to append to
+            deltaTracker.restoreDirtyChunks(dirtyChunks);
+            compact();
+        } catch (IOException | RuntimeException ex) {
+            // Records are streamed, so part of this one may have been appended already
+            deltaTracker.deltaFailed();
+            deltaTracker.restoreDirtyChunks(dirtyChunks);
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks whether the delta records appended since the last base
+     * snapshot should be folded into a new one through {@link #compact()}.
+     *
+     * @return <code>true</code> if the world should be compacted, <code>false</code> otherwise.
+     */
+    public boolean needsCompaction() {
+        return deltaTracker.needsCompaction();
+    }
+
+    /**
+     * Saves the whole world as a new base snapshot, replacing every delta record.
+     *
+     * @throws IOException if the world could not be saved.
+     */
+    public void compact() throws IOException {
+        Set<Long> dirtyChunks = deltaTracker.drainDirtyChunks();
+        byte worldVersion = version;
+        long[] size = new long[1];
+
+        try {
+            loader.saveWorld(name, stream -> {
+                CountingOutputStream countingStream = new CountingOutputStream(stream);
+                serialize(countingStream);
+                size[0] = countingStream.count;
+            }, false);
+
+            deltaTracker.baseSaved(size[0], worldVersion);
+        } catch (IOException | RuntimeException ex) {
+            deltaTracker.restoreDirtyChunks(dirtyChunks);
+            throw ex;
+        }
+    }
+
     // --- World Serialization methods
 
     public byte[] serialize() {
-        List<SlimeChunk> sortedChunks;
+        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
 
-        synchronized (chunks) {
-            sortedChunks = new ArrayList<>(chunks.values());
+        try {
+            serialize(outByteStream);
+        } catch (IOException ex) { // Ignore
+            //noinspection CallToPrintStackTrace
+            ex.printStackTrace();
         }
 
-        sortedChunks.sort(Comparator.comparingLong(chunk -> (long) chunk.getZ() * Integer.MAX_VALUE + (long) chunk.getX()));
-        sortedChunks.removeIf(chunk -> chunk == null || Arrays.stream(chunk.getSections()).allMatch(Objects::isNull)); // Remove empty chunks to save space
+        return outByteStream.toByteArray();
+    }
+
+    public void serialize(OutputStream stream) throws IOException {
+        List<SlimeChunk> sortedChunks = new ArrayList<>(chunks.values());
+
+        sortedChunks.removeIf(chunk -> chunk == null || isEmpty(chunk)); // Remove empty chunks to save space
+        writeWorld(stream, sortedChunks);
+    }
+
+    /**
+     * Serializes a delta record, holding the chunks modified since the previous save. Modified
+     * chunks that are now empty are listed as removed, as empty chunks are never stored.
+     */
+    private void serializeDelta(OutputStream stream, Set<Long> dirtyChunks) throws IOException {
+        List<SlimeChunk> changedChunks = new ArrayList<>();
+        List<Long> removedChunks = new ArrayList<>();
+
+        for (long key : dirtyChunks) {
+            SlimeChunk chunk = chunks.get(key);
+
+            if (chunk != null) {
+                changedChunks.add(chunk);
+            } else {
+                removedChunks.add(key);
+            }
+        }
+
+        for (Iterator<SlimeChunk> iterator = changedChunks.iterator(); iterator.hasNext(); ) {
+            SlimeChunk chunk = iterator.next();
+
+            if (isEmpty(chunk)) {
+                removedChunks.add(ChunkMap.key(chunk.getX(), chunk.getZ()));
+                iterator.remove();
+            }
+        }
+
+        DataOutputStream dataStream = new DataOutputStream(new BufferedOutputStream(stream));
+
+        // Removed chunks
+        dataStream.writeInt(removedChunks.size());
+
+        for (long key : removedChunks) {
+            dataStream.writeInt(ChunkMap.getX(key));
+            dataStream.writeInt(ChunkMap.getZ(key));
+        }
+
+        dataStream.flush();
+
+        // Changed chunks, stored just like a whole world
+        writeWorld(stream, changedChunks);
+    }
+
+    private void writeWorld(OutputStream stream, List<SlimeChunk> sortedChunks) throws IOException {
+        sortedChunks.sort(Comparator.comparingInt(SlimeChunk::getZ).thenComparingInt(SlimeChunk::getX));
 
         // Store world properties
         if(!extraData.getValue().containsKey("properties")) {
@@ -129,106 +331,263 @@ public class CraftSlimeWorld implements SlimeWorld {
             extraData.getValue().replace("properties", propertyMap.toCompound());
         }
 
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream();
-        DataOutputStream outStream = new DataOutputStream(outByteStream);
+        // World Maps
+        CompoundMap map = new CompoundMap();
+        map.put("maps", new ListTag<>("maps", TagType.TAG_COMPOUND, worldMaps));
+        CompoundTag mapsCompound = new CompoundTag("", map);
 
-        try {
-            // File Header and Slime version
-            outStream.write(SlimeFormat.SLIME_HEADER);
-            outStream.write(SlimeFormat.SLIME_VERSION);
+        CompressionSettings settings = CompressionSettings.fromProperties(propertyMap);
 
-            // World version
-            outStream.writeByte(version);
+        // Everything gets compressed with the same dictionary, referenced from the header
+        int dictionaryId = ZstdDictionaries.getActiveDictionaryId();
 
-            // Lowest chunk coordinates
-            int minX = sortedChunks.stream().mapToInt(SlimeChunk::getX).min().orElse(0);
-            int minZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).min().orElse(0);
-            int maxX = sortedChunks.stream().mapToInt(SlimeChunk::getX).max().orElse(0);
-            int maxZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).max().orElse(0);
+        // These blocks don't depend on each other, so they're compressed
+        // in the background while the chunk frames are being compressed
+        CompletableFuture<CompressedBlock> extraBlock = compressBlockAsync(dataStream -> writeCompoundTag(dataStream, extraData), settings, dictionaryId);
+        CompletableFuture<CompressedBlock> mapsBlock = compressBlockAsync(dataStream -> writeCompoundTag(dataStream, mapsCompound), settings, dictionaryId);
 
-            outStream.writeShort(minX);
-            outStream.writeShort(minZ);
+        // Offsets in the trailer are counted from here, the start of the header
+        DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(stream));
 
-            // Width and depth
-            int width = maxX - minX + 1;
-            int depth = maxZ - minZ + 1;
+        // File Header and Slime version
+        outStream.write(SlimeFormat.SLIME_HEADER);
+        outStream.write(SlimeFormat.SLIME_VERSION);
 
-            outStream.writeShort(width);
-            outStream.writeShort(depth);
+        // World version
+        outStream.writeByte(version);
 
-            // Chunk Bitmask
-            BitSet chunkBitset = new BitSet(width * depth);
+        // Compression dictionary
+        outStream.writeInt(dictionaryId);
 
-            for (SlimeChunk chunk : sortedChunks) {
-                int bitsetIndex = (chunk.getZ() - minZ) * width + (chunk.getX() - minX);
+        // Lowest chunk coordinates
+        int minX = sortedChunks.stream().mapToInt(SlimeChunk::getX).min().orElse(0);
+        int minZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).min().orElse(0);
+        int maxX = sortedChunks.stream().mapToInt(SlimeChunk::getX).max().orElse(0);
+        int maxZ = sortedChunks.stream().mapToInt(SlimeChunk::getZ).max().orElse(0);
 
-                chunkBitset.set(bitsetIndex, true);
-            }
+        outStream.writeShort(minX);
+        outStream.writeShort(minZ);
+
+        // Width and depth
+        int width = maxX - minX + 1;
+        int depth = maxZ - minZ + 1;
+
+        outStream.writeShort(width);
+        outStream.writeShort(depth);
+
+        // Chunk Bitmask
+        BitSet chunkBitset = new BitSet(width * depth);
 
-            int chunkMaskSize = (int) Math.ceil((width * depth) / 8.0D);
-            writeBitSetAsBytes(outStream, chunkBitset, chunkMaskSize);
+        for (SlimeChunk chunk : sortedChunks) {
+            int bitsetIndex = (chunk.getZ() - minZ) * width + (chunk.getX() - minX);
 
-            // Chunks
-            byte[] chunkData = serializeChunks(sortedChunks, version);
-            byte[] compressedChunkData = Zstd.compress(chunkData);
+            chunkBitset.set(bitsetIndex, true);
+        }
+
+        int chunkMaskSize = (int) Math.ceil((width * depth) / 8.0D);
+        writeBitSetAsBytes(outStream, chunkBitset, chunkMaskSize);
 
-            outStream.writeInt(compressedChunkData.length);
-            outStream.writeInt(chunkData.length);
-            outStream.write(compressedChunkData);
+        // Chunks, written as soon as they're compressed
+        ChunkIndex chunkIndex = writeChunkFrames(outStream, sortedChunks, version, palette, settings, LightStorage.fromProperties(propertyMap), dictionaryId);
 
-            // Tile Entities
-            List<CompoundTag> tileEntitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getTileEntities().stream()).collect(Collectors.toList());
-            ListTag<CompoundTag> tileEntitiesNbtList = new ListTag<>("tiles", TagType.TAG_COMPOUND, tileEntitiesList);
-            CompoundTag tileEntitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(tileEntitiesNbtList)));
-            byte[] tileEntitiesData = serializeCompoundTag(tileEntitiesCompound);
-            byte[] compressedTileEntitiesData = Zstd.compress(tileEntitiesData);
+        // Trailer, holding everything that's only known once every chunk has been written
+        int trailerOffset = outStream.size();
+        writeChunkIndex(outStream, chunkIndex);
 
-            outStream.writeInt(compressedTileEntitiesData.length);
-            outStream.writeInt(tileEntitiesData.length);
-            outStream.write(compressedTileEntitiesData);
+        // World palette, filled while the chunks were being serialized
+        if (version >= 0x04) {
+            ListTag<CompoundTag> paletteNbtList = new ListTag<>("palette", TagType.TAG_COMPOUND, palette.getEntries());
+            CompoundTag paletteCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(paletteNbtList)));
+            writeBlock(outStream, compressBlock(dataStream -> writeCompoundTag(dataStream, paletteCompound), settings, dictionaryId));
+        }
 
-            // Entities
-            List<CompoundTag> entitiesList = sortedChunks.stream().flatMap(chunk -> chunk.getEntities().stream()).collect(Collectors.toList());
+        // Extra Tag
+        writeBlock(outStream, await(extraBlock));
 
-            outStream.writeBoolean(!entitiesList.isEmpty());
+        // World Maps
+        writeBlock(outStream, await(mapsBlock));
 
-            if (!entitiesList.isEmpty()) {
-                ListTag<CompoundTag> entitiesNbtList = new ListTag<>("entities", TagType.TAG_COMPOUND, entitiesList);
-                CompoundTag entitiesCompound = new CompoundTag("", new CompoundMap(Collections.singletonList(entitiesNbtList)));
-                byte[] entitiesData = serializeCompoundTag(entitiesCompound);
-                byte[] compressedEntitiesData = Zstd.compress(entitiesData);
+        // Trailer pointer, always the last bytes of a world or delta record
+        outStream.writeLong(trailerOffset);
+        outStream.flush();
+    }
 
-                outStream.writeInt(compressedEntitiesData.length);
-                outStream.writeInt(entitiesData.length);
-                outStream.write(compressedEntitiesData);
+    private static CompletableFuture<CompressedBlock> compressBlockAsync(BlockWriter writer, CompressionSettings settings, int dictionaryId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return compressBlock(writer, settings, dictionaryId);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
+        });
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException cause)
+                throw cause.getCause();
 
-            // Extra Tag
-            byte[] extra = serializeCompoundTag(extraData);
-            byte[] compressedExtra = Zstd.compress(extra);
+            throw ex;
+        }
+    }
 
-            outStream.writeInt(compressedExtra.length);
-            outStream.writeInt(extra.length);
-            outStream.write(compressedExtra);
+    /**
+     * Serializes a block straight into a compressing stream, so only the compressed
+     * bytes have to be held until the block size prefix can be written.
+     */
+    private static CompressedBlock compressBlock(BlockWriter writer, CompressionSettings settings, int dictionaryId) throws IOException {
+        ByteArrayOutputStream compressedStream = new ByteArrayOutputStream();
+        int uncompressedLength;
+
+        try (DataOutputStream dataStream = new DataOutputStream(new BufferedOutputStream(settings.compressStream(compressedStream, dictionaryId)))) {
+            writer.write(dataStream);
+            uncompressedLength = dataStream.size();
+        }
 
-            // World Maps
-            CompoundMap map = new CompoundMap();
-            map.put("maps", new ListTag<>("maps", TagType.TAG_COMPOUND, worldMaps));
+        return new CompressedBlock(settings.codec(), compressedStream, uncompressedLength);
+    }
 
-            CompoundTag mapsCompound = new CompoundTag("", map);
+    private static void writeBlock(DataOutputStream outStream, CompressedBlock block) throws IOException {
+        // Empty blocks are stored as they are, as there's nothing to decompress
+        if (block.uncompressedLength() == 0) {
+            outStream.writeByte(CompressionCodec.NONE.getId());
+            outStream.writeInt(0);
+            outStream.writeInt(0);
+            return;
+        }
 
-            byte[] mapArray = serializeCompoundTag(mapsCompound);
-            byte[] compressedMapArray = Zstd.compress(mapArray);
+        outStream.writeByte(block.codec().getId());
+        outStream.writeInt(block.data().size());
+        outStream.writeInt(block.uncompressedLength());
+        block.data().writeTo(outStream);
+    }
 
-            outStream.writeInt(compressedMapArray.length);
-            outStream.writeInt(mapArray.length);
-            outStream.write(compressedMapArray);
-        } catch (IOException ex) { // Ignore
-            //noinspection CallToPrintStackTrace
-            ex.printStackTrace();
+    /**
+     * Compresses every chunk into its own frame, so a single chunk can be read
+     * without the others, and writes each frame as soon as it's ready. Each frame
+     * is prefixed by its length, so they can be walked through before the index.
+     * Big worlds get their frames compressed in parallel, with only a few of them
+     * being compressed ahead of the one that's written next.
+     */
+    private static ChunkIndex writeChunkFrames(
+            DataOutputStream outStream,
+            List<SlimeChunk> chunks,
+            byte worldVersion,
+            WorldPalette palette,
+            CompressionSettings settings,
+            LightStorage lightStorage,
+            int dictionaryId
+    ) throws IOException {
+        ChunkIndex chunkIndex = new ChunkIndex(chunks.size());
+        boolean parallel = chunks.size() >= PARALLEL_CHUNK_THRESHOLD;
+        Deque<CompletableFuture<ChunkFrame>> compressingFrames = new ArrayDeque<>();
+        int nextChunk = 0;
+
+        try {
+            for (int index = 0; index < chunks.size(); index++) {
+                ChunkFrame frame;
+
+                if (parallel) {
+                    while (nextChunk < chunks.size() && compressingFrames.size() < PARALLEL_FRAME_WINDOW) {
+                        SlimeChunk chunk = chunks.get(nextChunk++);
+                        compressingFrames.add(CompletableFuture.supplyAsync(() -> {
+                            try {
+                                return compressChunkFrame(chunk, worldVersion, palette, settings, lightStorage, dictionaryId);
+                            } catch (IOException ex) {
+                                throw new UncheckedIOException(ex);
+                            }
+                        }));
+                    }
+
+                    frame = await(compressingFrames.remove());
+                } else {
+                    frame = compressChunkFrame(chunks.get(index), worldVersion, palette, settings, lightStorage, dictionaryId);
+                }
+
+                outStream.writeInt(frame.data().length);
+
+                chunkIndex.codecs[index] = frame.codec();
+                chunkIndex.offsets[index] = outStream.size();
+                chunkIndex.lengths[index] = frame.data().length;
+                chunkIndex.uncompressedLengths[index] = frame.uncompressedLength();
+
+                outStream.write(frame.data());
+            }
+        } finally {
+            // Frames compressed ahead of a failed one aren't needed anymore
+            compressingFrames.forEach(future -> future.cancel(false));
         }
 
-        return outByteStream.toByteArray();
+        return chunkIndex;
+    }
+
+    private static ChunkFrame compressChunkFrame(
+            SlimeChunk chunk,
+            byte worldVersion,
+            WorldPalette palette,
+            CompressionSettings settings,
+            LightStorage lightStorage,
+            int dictionaryId
+    ) throws IOException {
+        // Chunks that were never decoded can't have changed
+        if (chunk instanceof LazySlimeChunk lazyChunk && lazyChunk.canReuseFrame(worldVersion, settings.codec(), dictionaryId, palette, lightStorage))
+            return new ChunkFrame(lazyChunk.getCodec(), lazyChunk.getCompressedFrame(), lazyChunk.getUncompressedLength());
+
+        // Chunks that have to be encoded again are decoded without being kept,
+        // as they may be shared with other worlds
+        if (chunk instanceof LazySlimeChunk lazyChunk)
+            chunk = lazyChunk.decodeCopy(lazyChunk.getWorldName());
+
+        byte[] chunkData = serializeChunk(chunk, worldVersion, palette, lightStorage);
+        return new ChunkFrame(settings.codec(), settings.compress(chunkData, dictionaryId), chunkData.length);
+    }
+
+    /**
+     * Writes the offsets and sizes of the chunk frames, which are counted
+     * from the start of the header.
+     */
+    private static void writeChunkIndex(DataOutputStream outStream, ChunkIndex chunkIndex) throws IOException {
+        outStream.writeInt(chunkIndex.codecs.length);
+
+        for (int i = 0; i < chunkIndex.codecs.length; i++) {
+            outStream.writeByte(chunkIndex.codecs[i].getId());
+            outStream.writeInt(chunkIndex.offsets[i]);
+            outStream.writeInt(chunkIndex.lengths[i]);
+            outStream.writeInt(chunkIndex.uncompressedLengths[i]);
+        }
+    }
+
+    /**
+     * Serializes every chunk and its entities without compressing them, so
+     * they can be used as samples when training a compression dictionary.
+     *
+     * @param consumer The consumer receiving the samples.
+     * @throws IOException if a chunk could not be serialized.
+     */
+    public void collectDictionarySamples(Consumer<byte[]> consumer) throws IOException {
+        List<SlimeChunk> chunkList = new ArrayList<>(chunks.values());
+        LightStorage lightStorage = LightStorage.fromProperties(propertyMap);
+
+        for (SlimeChunk chunk : chunkList) {
+            if (chunk == null || isEmpty(chunk))
+                continue;
+
+            // Entities are stored along with their chunk
+            consumer.accept(serializeChunk(chunk, version, palette, lightStorage));
+        }
+
+        if (!extraData.getValue().isEmpty())
+            consumer.accept(serializeCompoundTag(extraData));
+    }
+
+    private static boolean isEmpty(SlimeChunk chunk) {
+        // Empty chunks are never saved, so an untouched frame always has some blocks
+        if (chunk instanceof LazySlimeChunk lazyChunk && !lazyChunk.isDecoded())
+            return false;
+
+        return Arrays.stream(chunk.getSections()).allMatch(Objects::isNull);
     }
 
     private static void writeBitSetAsBytes(DataOutputStream outStream, BitSet set, int fixedSize) throws IOException {
@@ -242,95 +601,234 @@ public class CraftSlimeWorld implements SlimeWorld {
         }
     }
 
-    private static byte[] serializeChunks(List<SlimeChunk> chunks, byte worldVersion) throws IOException {
-        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream(16384);
-        DataOutputStream outStream = new DataOutputStream(outByteStream);
+    /**
+     * Serializes a chunk into a buffer sized upfront, so arrays can be bulk-copied into it.
+     */
+    private static byte[] serializeChunk(
+            SlimeChunk chunk, byte worldVersion, WorldPalette palette, LightStorage lightStorage
+    ) throws IOException {
+        byte[] heightMaps = worldVersion >= 0x04 ? serializeCompoundTag(chunk.getHeightMaps()) : null;
+        int[] biomes = chunk.getBiomes();
+        SlimeChunkSection[] sections = chunk.getSections();
+        byte[] tileEntities = serializeEntityList("tiles", chunk.getTileEntities());
+        byte[] entities = serializeEntityList("entities", chunk.getEntities());
+
+        // Light of each section that's going to be stored, along with its uniform
+        // level, or -1 if it has to be stored as an array
+        NibbleArray[] blockLights = new NibbleArray[sections.length];
+        NibbleArray[] skyLights = new NibbleArray[sections.length];
+        int[] blockLightLevels = new int[sections.length];
+        int[] skyLightLevels = new int[sections.length];
+
+        for (int i = 0; i < sections.length; i++) {
+            if (sections[i] != null) {
+                blockLightLevels[i] = getUniformLightLevel(sections[i].blockLight());
+                skyLightLevels[i] = getUniformLightLevel(sections[i].skyLight());
+
+                blockLights[i] = lightStorage.stores(blockLightLevels[i]) ? sections[i].blockLight() : null;
+                skyLights[i] = lightStorage.stores(skyLightLevels[i]) ? sections[i].skyLight() : null;
+            }
+        }
 
-        for (SlimeChunk chunk : chunks) {
-            // Height Maps
-            if (worldVersion >= 0x04) {
-                byte[] heightMaps = serializeCompoundTag(chunk.getHeightMaps());
-                outStream.writeInt(heightMaps.length);
-                outStream.write(heightMaps);
-            } else {
-                //noinspection OptionalGetWithoutIsPresent
-                int[] heightMap = chunk.getHeightMaps().getIntArrayValue("heightMap").get();
+        int size = getSerializedSize(heightMaps, biomes, sections, blockLights, skyLights, blockLightLevels, skyLightLevels, worldVersion)
+                + Integer.BYTES * 2 + tileEntities.length + entities.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        // Height Maps
+        if (worldVersion >= 0x04) {
+            buffer.putInt(heightMaps.length);
+            buffer.put(heightMaps);
+        } else {
+            //noinspection OptionalGetWithoutIsPresent
+            int[] heightMap = chunk.getHeightMaps().getIntArrayValue("heightMap").get();
+            putInts(buffer, Arrays.copyOf(heightMap, 256));
+        }
 
-                for (int i = 0; i < 256; i++) {
-                    outStream.writeInt(heightMap[i]);
-                }
+        // Biomes
+        if (worldVersion >= 0x04) {
+            buffer.putInt(biomes.length);
+        }
+
+        putInts(buffer, biomes);
+
+        // Chunk sections
+        BitSet sectionBitmask = new BitSet(16);
+
+        for (int i = 0; i < sections.length; i++) {
+            sectionBitmask.set(i, sections[i] != null);
+        }
+
+        putBitSetAsBytes(buffer, sectionBitmask, 2);
+
+        for (int sectionIndex = 0; sectionIndex < sections.length; sectionIndex++) {
+            SlimeChunkSection section = sections[sectionIndex];
+            if (section == null) {
+                continue;
             }
 
-            // Biomes
-            int[] biomes = chunk.getBiomes();
+            // Block Light
+            putLight(buffer, blockLights[sectionIndex], blockLightLevels[sectionIndex]);
+
+            // Block Data
             if (worldVersion >= 0x04) {
-                outStream.writeInt(biomes.length);
+                // Palette, stored as indexes into the world palette
+                List<CompoundTag> sectionPalette = section.palette().getValue();
+                int[] paletteIndexes = new int[sectionPalette.size()];
+
+                for (int i = 0; i < paletteIndexes.length; i++) {
+                    paletteIndexes[i] = palette.indexOf(sectionPalette.get(i));
+                }
+
+                buffer.putInt(paletteIndexes.length);
+                putInts(buffer, paletteIndexes);
+
+                // Block states, left out if the whole section is made of a single one
+                if (paletteIndexes.length == 1) {
+                    buffer.putInt(0);
+                } else {
+                    long[] blockStates = section.blockStates();
+
+                    buffer.putInt(blockStates.length);
+                    putLongs(buffer, blockStates);
+                }
+            } else {
+                buffer.put(section.blocks());
+                buffer.put(section.data().getBacking());
             }
 
-            for (int biome : biomes) {
-                outStream.writeInt(biome);
+            // Sky Light
+            putLight(buffer, skyLights[sectionIndex], skyLightLevels[sectionIndex]);
+        }
+
+        // Tile Entities
+        buffer.putInt(tileEntities.length);
+        buffer.put(tileEntities);
+
+        // Entities
+        buffer.putInt(entities.length);
+        buffer.put(entities);
+
+        return buffer.array();
+    }
+
+    private static byte[] serializeEntityList(String name, List<CompoundTag> entityList) throws IOException {
+        if (entityList == null || entityList.isEmpty()) {
+            return new byte[0];
+        }
+
+        ListTag<CompoundTag> entitiesNbtList = new ListTag<>(name, TagType.TAG_COMPOUND, entityList);
+        return serializeCompoundTag(new CompoundTag("", new CompoundMap(Collections.singletonList(entitiesNbtList))));
+    }
+
+    private static int getSerializedSize(
+            byte[] heightMaps,
+            int[] biomes,
+            SlimeChunkSection[] sections,
+            NibbleArray[] blockLights,
+            NibbleArray[] skyLights,
+            int[] blockLightLevels,
+            int[] skyLightLevels,
+            byte worldVersion
+    ) {
+        int size = worldVersion >= 0x04 ? Integer.BYTES + heightMaps.length + Integer.BYTES : 256 * Integer.BYTES;
+        size += biomes.length * Integer.BYTES + 2;
+
+        for (int i = 0; i < sections.length; i++) {
+            SlimeChunkSection section = sections[i];
+            if (section == null) {
+                continue;
             }
 
-            // Chunk sections
-            SlimeChunkSection[] sections = chunk.getSections();
-            BitSet sectionBitmask = new BitSet(16);
+            size += 2; // Light types
+            size += getLightSize(blockLights[i], blockLightLevels[i]);
+            size += getLightSize(skyLights[i], skyLightLevels[i]);
+
+            if (worldVersion >= 0x04) {
+                int paletteSize = section.palette().getValue().size();
 
-            for (int i = 0; i < sections.length; i++) {
-                sectionBitmask.set(i, sections[i] != null);
+                size += Integer.BYTES + paletteSize * Integer.BYTES;
+                size += Integer.BYTES + (paletteSize == 1 ? 0 : section.blockStates().length * Long.BYTES);
+            } else {
+                size += section.blocks().length + section.data().getBacking().length;
             }
+        }
 
-            writeBitSetAsBytes(outStream, sectionBitmask, 2);
+        return size;
+    }
 
-            for (SlimeChunkSection section : sections) {
-                if (section == null) {
-                    continue;
-                }
+    /**
+     * Gets the light level every block of a section has.
+     *
+     * @return The light level, or -1 if it's not the same for every block.
+     */
+    private static int getUniformLightLevel(NibbleArray light) {
+        if (light == null) {
+            return -1;
+        }
 
-                // Block Light
-                boolean hasBlockLight = section.blockLight() != null;
-                outStream.writeBoolean(hasBlockLight);
+        byte[] backing = light.getBacking();
+        byte first = backing[0];
 
-                if (hasBlockLight) {
-                    outStream.write(section.blockLight().getBacking());
-                }
+        // Both nibbles of every byte must hold the same level
+        if ((first & 0xF) != ((first >> 4) & 0xF)) {
+            return -1;
+        }
 
-                // Block Data
-                if (worldVersion >= 0x04) {
-                    // Palette
-                    List<CompoundTag> palette = section.palette().getValue();
-                    outStream.writeInt(palette.size());
+        for (byte value : backing) {
+            if (value != first) {
+                return -1;
+            }
+        }
 
-                    for (CompoundTag value : palette) {
-                        byte[] serializedValue = serializeCompoundTag(value);
+        return first & 0xF;
+    }
 
-                        outStream.writeInt(serializedValue.length);
-                        outStream.write(serializedValue);
-                    }
+    private static int getLightSize(NibbleArray light, int uniformLevel) {
+        if (light == null) {
+            return 0;
+        }
 
-                    // Block states
-                    long[] blockStates = section.blockStates();
+        return uniformLevel != -1 ? 1 : light.getBacking().length;
+    }
 
-                    outStream.writeInt(blockStates.length);
+    private static void putLight(ByteBuffer buffer, NibbleArray light, int uniformLevel) {
+        if (light == null) {
+            buffer.put(SlimeChunkDecoder.LIGHT_MISSING);
+        } else if (uniformLevel != -1) {
+            buffer.put(SlimeChunkDecoder.LIGHT_UNIFORM);
+            buffer.put((byte) uniformLevel);
+        } else {
+            buffer.put(SlimeChunkDecoder.LIGHT_ARRAY);
+            buffer.put(light.getBacking());
+        }
+    }
 
-                    for (long value : section.blockStates()) {
-                        outStream.writeLong(value);
-                    }
-                } else {
-                    outStream.write(section.blocks());
-                    outStream.write(section.data().getBacking());
-                }
+    private static void putBitSetAsBytes(ByteBuffer buffer, BitSet set, int fixedSize) {
+        byte[] array = set.toByteArray();
+        buffer.put(array);
 
-                // Sky Light
-                boolean hasSkyLight = section.skyLight() != null;
-                outStream.writeBoolean(hasSkyLight);
+        for (int i = array.length; i < fixedSize; i++) {
+            buffer.put((byte) 0);
+        }
+    }
 
-                if (hasSkyLight) {
-                    outStream.write(section.skyLight().getBacking());
-                }
-            }
+    private static void putInts(ByteBuffer buffer, int[] array) {
+        buffer.asIntBuffer().put(array);
+        buffer.position(buffer.position() + array.length * Integer.BYTES);
+    }
+
+    private static void putLongs(ByteBuffer buffer, long[] array) {
+        buffer.asLongBuffer().put(array);
+        buffer.position(buffer.position() + array.length * Long.BYTES);
+    }
+
+    private static void writeCompoundTag(DataOutputStream outStream, CompoundTag tag) throws IOException {
+        if (tag == null || tag.getValue().isEmpty()) {
+            return;
         }
 
-        return outByteStream.toByteArray();
+        NBTOutputStream nbtStream = new NBTOutputStream(outStream, NBTInputStream.NO_COMPRESSION, ByteOrder.BIG_ENDIAN);
+        nbtStream.writeTag(tag);
     }
 
     private static byte[] serializeCompoundTag(CompoundTag tag) throws IOException {
@@ -344,4 +842,57 @@ public class CraftSlimeWorld implements SlimeWorld {
         return outByteStream.toByteArray();
     }
 
+    private record ChunkFrame(CompressionCodec codec, byte[] data, int uncompressedLength) {
+
+    }
+
+    private static final class ChunkIndex {
+
+        private final CompressionCodec[] codecs;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int[] uncompressedLengths;
+
+        private ChunkIndex(int frameCount) {
+            this.codecs = new CompressionCodec[frameCount];
+            this.offsets = new int[frameCount];
+            this.lengths = new int[frameCount];
+            this.uncompressedLengths = new int[frameCount];
+        }
+
+    }
+
+    private record CompressedBlock(CompressionCodec codec, ByteArrayOutputStream data, int uncompressedLength) {
+
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+
+    }
+
+    @FunctionalInterface
+    private interface BlockWriter {
+
+        void write(DataOutputStream dataStream) throws IOException;
+
+    }
+
 }
@@ -0,0 +1,50 @@
+package com.grinderwolf.swm.nms;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of direct buffers, used as scratch space while compressing.
+ * Allocating direct memory is expensive and it's only released once the
+ * GC gets to the buffer, so buffers are kept around between saves.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class DirectBufferPool {
+
+    private static final int MIN_CAPACITY = 64 * 1024;
+    private static final int MAX_POOLED_CAPACITY = 8 * 1024 * 1024; // Bigger buffers are rare enough to not be worth keeping
+    private static final int MAX_POOLED_BUFFERS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final Queue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    /**
+     * Takes a buffer out of the pool, or allocates a new one if there's none big enough.
+     *
+     * @param capacity The minimum capacity of the buffer.
+     * @return A cleared buffer, which should be given back through {@link #release(ByteBuffer)}.
+     */
+    static ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = BUFFERS.poll();
+
+        // Undersized buffers are dropped, so the pool grows towards the sizes in use
+        if (buffer == null || buffer.capacity() < capacity) {
+            int newCapacity = capacity > MAX_POOLED_CAPACITY
+                    ? capacity
+                    : Math.max(MIN_CAPACITY, Integer.highestOneBit(capacity - 1) << 1);
+
+            buffer = ByteBuffer.allocateDirect(newCapacity);
+        }
+
+        return buffer.clear();
+    }
+
+    static void release(ByteBuffer buffer) {
+        if (buffer.capacity() <= MAX_POOLED_CAPACITY)
+            BUFFERS.offer(buffer);
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.grinderwolf.swm.nms;
+
+import com.flowpowered.nbt.CompoundTag;
+import com.grinderwolf.swm.api.world.SlimeChunk;
+import com.grinderwolf.swm.api.world.SlimeChunkSection;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chunk that is kept as its compressed frame until its block data
+ * is requested for the first time. Untouched chunks are saved by
+ * writing their original frame back.
+ */
+@Getter
+@RequiredArgsConstructor
+public class LazySlimeChunk implements SlimeChunk {
+
+    // Later versions only changed where the chunk index is stored, not the frames
+    private static final byte FRAME_FORMAT_VERSION = 16;
+
+    private final String worldName;
+    private final int x;
+    private final int z;
+
+    private final CompressionCodec codec;
+    private final byte[] compressedFrame;
+    private final int uncompressedLength;
+    private final byte worldVersion;
+    private final byte formatVersion;
+    private final int dictionaryId;
+    private final WorldPalette palette;
+    private final LightStorage lightStorage; // The light storage the frame was encoded with
+
+    // Entities of worlds older than v15 are stored outside the chunk frames,
+    // newer ones are read from the frame into these lists once it's decoded
+    private final List<CompoundTag> tileEntities = new ArrayList<>();
+    private final List<CompoundTag> entities = new ArrayList<>();
+
+    @Getter(AccessLevel.NONE)
+    private volatile CraftSlimeChunk decodedChunk;
+
+    // Worlds cloned from the one this chunk belongs to share it, decoded chunk included
+    @Getter(AccessLevel.NONE) @Setter
+    private volatile DecodeListener decodeListener;
+
+    public CraftSlimeChunk decode() {
+        CraftSlimeChunk chunk = decodedChunk;
+        boolean decoded = false;
+
+        if (chunk == null) {
+            synchronized (this) {
+                chunk = decodedChunk;
+
+                if (chunk == null) {
+                    chunk = decodeFrame(worldName, tileEntities, entities);
+                    decodedChunk = chunk;
+                    decoded = true;
+                }
+            }
+        }
+
+        DecodeListener listener = decodeListener;
+        if (decoded && listener != null)
+            listener.chunkDecoded(this, chunk);
+
+        return chunk;
+    }
+
+    /**
+     * Decodes the frame into a chunk that isn't kept by this one, for chunks that are only
+     * needed briefly, such as to encode them again. If this chunk has already been decoded,
+     * the decoded chunk is returned instead, as it may be newer than the frame.
+     *
+     * @param worldName The name of the world the decoded chunk belongs to.
+     * @return The decoded chunk.
+     */
+    public CraftSlimeChunk decodeCopy(String worldName) {
+        CraftSlimeChunk chunk = decodedChunk;
+        if (chunk != null)
+            return chunk;
+
+        return decodeFrame(worldName, new ArrayList<>(tileEntities), new ArrayList<>(entities));
+    }
+
+    private CraftSlimeChunk decodeFrame(String worldName, List<CompoundTag> tileEntities, List<CompoundTag> entities) {
+        try {
+            return SlimeChunkDecoder.decodeFrame(
+                    codec, compressedFrame, uncompressedLength, ZstdDictionaries.getDecompressDictionary(dictionaryId),
+                    worldVersion, formatVersion, palette, worldName, x, z, tileEntities, entities
+            );
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to decode chunk (%d, %d) of world '%s'!".formatted(x, z, this.worldName), ex);
+        }
+    }
+
+    public boolean isDecoded() {
+        return decodedChunk != null;
+    }
+
+    /**
+     * Creates a copy of this chunk whose frame is known to have been encoded with the
+     * given light storage. Light storage is only known once the properties stored after
+     * the frames have been read, so chunks are created first and copied afterwards.
+     *
+     * @param lightStorage The light storage the frame was encoded with.
+     * @return The copy of this chunk.
+     */
+    public LazySlimeChunk withLightStorage(LightStorage lightStorage) {
+        LazySlimeChunk chunk = new LazySlimeChunk(worldName, x, z, codec, compressedFrame, uncompressedLength,
+                worldVersion, formatVersion, dictionaryId, palette, lightStorage);
+        chunk.tileEntities.addAll(tileEntities);
+        chunk.entities.addAll(entities);
+
+        return chunk;
+    }
+
+    /**
+     * Checks whether the original frame can be written back as-is. Once decoded, the
+     * chunk data might have been modified, so it has to be serialized again.
+     *
+     * @param worldVersion The world version the chunk is going to be saved with.
+     * @param codec        The codec the world is going to be compressed with.
+     * @param dictionaryId The id of the dictionary the world is going to be compressed with.
+     * @param palette      The block state palette the world is going to be saved with.
+     * @param lightStorage The light storage the world is going to be saved with.
+     * @return <code>true</code> if the frame can be reused, <code>false</code> otherwise.
+     */
+    public boolean canReuseFrame(byte worldVersion, CompressionCodec codec, int dictionaryId, WorldPalette palette, LightStorage lightStorage) {
+        return !isDecoded() && this.worldVersion == worldVersion
+                && this.codec == codec && this.dictionaryId == dictionaryId
+                && palette.startsWith(this.palette) && this.lightStorage == lightStorage
+                && formatVersion >= FRAME_FORMAT_VERSION;
+    }
+
+    @Override
+    public SlimeChunkSection[] getSections() {
+        return decode().getSections();
+    }
+
+    @Override
+    public CompoundTag getHeightMaps() {
+        return decode().getHeightMaps();
+    }
+
+    @Override
+    public int[] getBiomes() {
+        return decode().getBiomes();
+    }
+
+    @Override
+    public List<CompoundTag> getTileEntities() {
+        return formatVersion >= 15 ? decode().getTileEntities() : tileEntities;
+    }
+
+    @Override
+    public List<CompoundTag> getEntities() {
+        return formatVersion >= 15 ? decode().getEntities() : entities;
+    }
+
+    @FunctionalInterface
+    public interface DecodeListener {
+
+        /**
+         * Called once a chunk has been decoded, from the thread that decoded it.
+         *
+         * @param lazyChunk The chunk that has been decoded, which now keeps the decoded chunk.
+         * @param chunk     The decoded chunk.
+         */
+        void chunkDecoded(LazySlimeChunk lazyChunk, CraftSlimeChunk chunk);
+
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.grinderwolf.swm.nms;
+
+import com.grinderwolf.swm.api.world.properties.SlimeProperties;
+import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Which light data of the chunk sections is stored when a world is saved.
+ * Sections stored without light get it recomputed by the light engine.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum LightStorage {
+
+    FULL("full"),
+    HYBRID("hybrid"), // Evenly lit sections are cheap to recompute
+    NONE("none");
+
+    private final String key;
+
+    public static LightStorage byKey(String key) {
+        for (LightStorage storage : values()) {
+            if (storage.key.equalsIgnoreCase(key))
+                return storage;
+        }
+
+        throw new IllegalArgumentException("Unknown light storage '" + key + "'!");
+    }
+
+    public static LightStorage fromProperties(SlimePropertyMap propertyMap) {
+        return byKey(propertyMap.getValue(SlimeProperties.LIGHT_STORAGE));
+    }
+
+    /**
+     * Checks whether the light of a section has to be stored.
+     *
+     * @param uniformLevel The light level of every block of the section, or -1 if they don't all have the same one.
+     * @return <code>true</code> if the light has to be stored, <code>false</code> otherwise.
+     */
+    public boolean stores(int uniformLevel) {
+        return switch (this) {
+            case FULL -> true;
+            case HYBRID -> uniformLevel == -1;
+            case NONE -> false;
+        };
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.grinderwolf.swm.nms;
+
+import com.flowpowered.nbt.CompoundMap;
+import com.flowpowered.nbt.CompoundTag;
+import com.flowpowered.nbt.IntArrayTag;
+import com.flowpowered.nbt.ListTag;
+import com.flowpowered.nbt.TagType;
+import com.flowpowered.nbt.stream.NBTInputStream;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.grinderwolf.swm.api.util.NibbleArray;
+import com.grinderwolf.swm.api.world.SlimeChunkSection;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Decodes chunks stored in the custom chunk format, either from
+ * a decompressed chunk block or from a single compressed chunk frame.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class SlimeChunkDecoder {
+
+    // Light types of the sections, see SLIME_FORMAT
+    static final byte LIGHT_MISSING = 0;
+    static final byte LIGHT_ARRAY = 1;
+    static final byte LIGHT_UNIFORM = 2;
+
+    private static final int LIGHT_ARRAY_SIZE = 2048;
+    private static final int UNIFORM_BLOCK_STATES_SIZE = 256; // 4096 blocks, using the minimum of 4 bits each
+
+    /**
+     * Decompresses and reads a single chunk frame.
+     *
+     * @param codec              The codec the frame was compressed with.
+     * @param frame              The compressed chunk frame.
+     * @param uncompressedLength The size of the chunk once decompressed.
+     * @param dictionary         The dictionary the frame was compressed with, or <code>null</code> if none.
+     * @param worldVersion       The world version of the chunk's world.
+     * @param version            The slime format version the chunk was stored with.
+     * @param palette            The block state palette of the chunk's world.
+     * @param worldName          The name of the chunk's world.
+     * @param x                  The X coordinate of the chunk.
+     * @param z                  The Z coordinate of the chunk.
+     * @param tileEntities       The tile entity list the chunk will hold.
+     * @param entities           The entity list the chunk will hold.
+     * @return The decoded chunk.
+     * @throws IOException if the chunk could not be read.
+     */
+    public static CraftSlimeChunk decodeFrame(
+            CompressionCodec codec,
+            byte[] frame,
+            int uncompressedLength,
+            ZstdDictDecompress dictionary,
+            byte worldVersion,
+            int version,
+            WorldPalette palette,
+            String worldName,
+            int x,
+            int z,
+            List<CompoundTag> tileEntities,
+            List<CompoundTag> entities
+    ) throws IOException {
+        byte[] chunkData;
+
+        try {
+            chunkData = codec.decompress(frame, uncompressedLength, dictionary);
+        } catch (IOException ex) {
+            throw new IOException("Chunk frame at (%d, %d) is corrupted".formatted(x, z), ex);
+        }
+
+        return readChunk(ByteBuffer.wrap(chunkData), worldVersion, version, palette, worldName, x, z, tileEntities, entities);
+    }
+
+    /**
+     * Reads a single chunk, stored in the custom chunk format. Arrays
+     * are bulk-copied straight out of the buffer, which is left right
+     * after the end of the chunk.
+     *
+     * @param buffer       The buffer to read the chunk from.
+     * @param worldVersion The world version of the chunk's world.
+     * @param version      The slime format version the chunk was stored with.
+     * @param palette      The block state palette of the chunk's world.
+     * @param worldName    The name of the chunk's world.
+     * @param x            The X coordinate of the chunk.
+     * @param z            The Z coordinate of the chunk.
+     * @param tileEntities The tile entity list the chunk will hold.
+     * @param entities     The entity list the chunk will hold.
+     * @return The decoded chunk.
+     * @throws IOException if the chunk could not be read.
+     */
+    public static CraftSlimeChunk readChunk(
+            ByteBuffer buffer,
+            byte worldVersion,
+            int version,
+            WorldPalette palette,
+            String worldName,
+            int x,
+            int z,
+            List<CompoundTag> tileEntities,
+            List<CompoundTag> entities
+    ) throws IOException {
+        try {
+            // Height Maps
+            CompoundTag heightMaps;
+
+            if (worldVersion >= 0x04) {
+                heightMaps = readCompoundTag(readBytes(buffer, buffer.getInt()));
+
+                // Height Maps might be null if empty
+                if (heightMaps == null) {
+                    heightMaps = new CompoundTag("", new CompoundMap());
+                }
+            } else {
+                int[] heightMap = readInts(buffer, 256);
+
+                CompoundMap map = new CompoundMap();
+                map.put("heightMap", new IntArrayTag("heightMap", heightMap));
+                heightMaps = new CompoundTag("", map);
+            }
+
+            // Biome array
+            int[] biomes;
+
+            if (version == 8 && worldVersion < 0x04)
+                // Patch the v8 bug: biome array size is wrong for old worlds
+                buffer.getInt();
+
+            if (worldVersion >= 0x04) {
+                int biomesArrayLength = version >= 8 ? buffer.getInt() : 256;
+                biomes = readInts(buffer, biomesArrayLength);
+            } else {
+                biomes = toIntArray(readBytes(buffer, 256));
+            }
+
+            // Chunk Sections
+            SlimeChunkSection[] sections = readChunkSections(buffer, worldVersion, version, palette);
+
+            // Entities, stored along with their chunk since v15
+            if (version >= 15) {
+                readEntityList(buffer, "tiles", tileEntities);
+                readEntityList(buffer, "entities", entities);
+            }
+
+            return new CraftSlimeChunk(worldName, x, z, sections, heightMaps, biomes, tileEntities, entities);
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new EOFException("Chunk (%d, %d) ends unexpectedly".formatted(x, z));
+        }
+    }
+
+    private static int[] toIntArray(byte[] buf) {
+        ByteBuffer buffer = ByteBuffer.wrap(buf).order(ByteOrder.BIG_ENDIAN);
+        int[] ret = new int[buf.length / 4];
+        buffer.asIntBuffer().get(ret);
+        return ret;
+    }
+
+    private static SlimeChunkSection[] readChunkSections(
+            ByteBuffer buffer, byte worldVersion, int version, WorldPalette palette
+    ) throws IOException {
+        SlimeChunkSection[] chunkSectionArray = new SlimeChunkSection[16];
+        BitSet sectionBitset = BitSet.valueOf(readBytes(buffer, 2));
+
+        for (int i = 0; i < 16; i++) {
+            if (sectionBitset.get(i)) {
+                // Block Light Nibble Array
+                NibbleArray blockLightArray = readLight(buffer, version);
+
+                // Block data
+                byte[] blockArray;
+                NibbleArray dataArray;
+
+                ListTag<CompoundTag> paletteTag;
+                long[] blockStatesArray;
+
+                // Post 1.13 block format
+                if (worldVersion >= 0x04) {
+                    // Palette
+                    int paletteLength = buffer.getInt();
+                    List<CompoundTag> paletteList = new ArrayList<>(paletteLength);
+
+                    if (version >= 14) { // Block states are stored in the world palette
+                        for (int index : readInts(buffer, paletteLength)) {
+                            paletteList.add(palette.get(index));
+                        }
+                    } else {
+                        for (int index = 0; index < paletteLength; index++) {
+                            paletteList.add(readCompoundTag(readBytes(buffer, buffer.getInt())));
+                        }
+                    }
+
+                    paletteTag = new ListTag<>("", TagType.TAG_COMPOUND, paletteList);
+
+                    // Block states, left out if the whole section is made of a single one
+                    int blockStatesLength = buffer.getInt();
+
+                    if (blockStatesLength == 0 && paletteLength == 1) {
+                        blockStatesArray = new long[UNIFORM_BLOCK_STATES_SIZE];
+                    } else {
+                        blockStatesArray = readLongs(buffer, blockStatesLength);
+                    }
+
+                    blockArray = null;
+                    dataArray = null;
+                } else {
+                    blockArray = readBytes(buffer, 4096);
+
+                    // Block Data Nibble Array
+                    dataArray = new NibbleArray(readBytes(buffer, 2048));
+
+                    paletteTag = null;
+                    blockStatesArray = null;
+                }
+
+                // Sky Light Nibble Array
+                NibbleArray skyLightArray = readLight(buffer, version);
+
+                // HypixelBlocks 3
+                if (version < 4) {
+                    short hypixelBlocksLength = buffer.getShort();
+                    buffer.position(buffer.position() + hypixelBlocksLength);
+                }
+
+                chunkSectionArray[i] = new CraftSlimeChunkSection(blockArray, dataArray, paletteTag, blockStatesArray, blockLightArray, skyLightArray);
+            }
+        }
+
+        return chunkSectionArray;
+    }
+
+    private static NibbleArray readLight(ByteBuffer buffer, int version) {
+        if (version < 5) // Light was always present
+            return new NibbleArray(readBytes(buffer, LIGHT_ARRAY_SIZE));
+
+        byte lightType = buffer.get();
+
+        if (lightType == LIGHT_MISSING)
+            return null;
+
+        if (version >= 16 && lightType == LIGHT_UNIFORM) {
+            int level = buffer.get() & 0xF;
+            byte[] light = new byte[LIGHT_ARRAY_SIZE];
+
+            if (level != 0)
+                Arrays.fill(light, (byte) (level << 4 | level));
+
+            return new NibbleArray(light);
+        }
+
+        return new NibbleArray(readBytes(buffer, LIGHT_ARRAY_SIZE));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void readEntityList(ByteBuffer buffer, String name, List<CompoundTag> entityList) throws IOException {
+        CompoundTag compound = readCompoundTag(readBytes(buffer, buffer.getInt()));
+
+        if (compound != null) {
+            compound.getAsListTag(name).ifPresent(listTag -> entityList.addAll((List<CompoundTag>) listTag.getValue()));
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length) {
+        byte[] array = new byte[length];
+        buffer.get(array);
+        return array;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] array = new int[length];
+        buffer.asIntBuffer().get(array);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return array;
+    }
+
+    private static long[] readLongs(ByteBuffer buffer, int length) {
+        long[] array = new long[length];
+        buffer.asLongBuffer().get(array);
+        buffer.position(buffer.position() + length * Long.BYTES);
+        return array;
+    }
+
+    private static CompoundTag readCompoundTag(byte[] serializedCompound) throws IOException {
+        if (serializedCompound.length == 0)
+            return null;
+
+        NBTInputStream stream = new NBTInputStream(
+                new ByteArrayInputStream(serializedCompound),
+                NBTInputStream.NO_COMPRESSION,
+                ByteOrder.BIG_ENDIAN
+        );
+
+        return (CompoundTag) stream.readTag();
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.grinderwolf.swm.nms;
+
+import com.flowpowered.nbt.CompoundMap;
+import com.flowpowered.nbt.CompoundTag;
+import com.flowpowered.nbt.StringTag;
+import com.flowpowered.nbt.Tag;
+import com.flowpowered.nbt.stream.NBTInputStream;
+import com.flowpowered.nbt.stream.NBTOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Block state palette shared by every chunk section of a world. Sections
+ * store indexes into this palette instead of their own NBT palettes, so
+ * each block state is only stored and parsed once per world.
+ * <p>
+ * Entries are never removed nor reordered, so chunk frames that were
+ * written with an older snapshot of the palette can still be read. Block
+ * states are copied on their way in and out, as world upgraders modify the
+ * palettes of chunk sections in place.
+ * <p>
+ * Cloned worlds {@link #fork() fork} the palette of their original world: they share
+ * its entries as they were when forked, and keep the ones they add to themselves.
+ */
+public class WorldPalette {
+
+    // Entries below the parent size are the ones of the parent, which may have grown since
+    private final WorldPalette parent;
+    private final int parentSize;
+
+    private final List<CompoundTag> entries = new ArrayList<>(); // Indexed from the parent size onwards
+    private final Map<Object, Integer> indexes = new ConcurrentHashMap<>();
+
+    public WorldPalette() {
+        this(null, 0);
+    }
+
+    private WorldPalette(WorldPalette parent, int parentSize) {
+        this.parent = parent;
+        this.parentSize = parentSize;
+    }
+
+    /**
+     * Creates a palette starting with the entries this one has right now, without copying
+     * them. Entries added to either palette afterwards aren't seen by the other one.
+     *
+     * @return The forked palette.
+     */
+    public WorldPalette fork() {
+        return new WorldPalette(this, size());
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return parentSize + entries.size();
+        }
+    }
+
+    /**
+     * Checks whether this palette is the given one or was forked from it, even through other forks,
+     * in which case indexes into the given palette as it was when forked are valid in this one too.
+     *
+     * @param palette The palette.
+     * @return <code>true</code> if this palette starts with the given one, <code>false</code> otherwise.
+     */
+    public boolean startsWith(WorldPalette palette) {
+        for (WorldPalette current = this; current != null; current = current.parent) {
+            if (current == palette)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the index of a block state, adding it to the palette if it's not there yet.
+     *
+     * @param state The block state.
+     * @return The index of the block state.
+     * @throws IOException if the block state could not be serialized.
+     */
+    public int indexOf(CompoundTag state) throws IOException {
+        Object key = keyOf(state);
+        Integer index = find(key, Integer.MAX_VALUE);
+
+        if (index != null)
+            return index;
+
+        synchronized (entries) {
+            return indexes.computeIfAbsent(key, k -> {
+                entries.add(state.clone());
+                return parentSize + entries.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Looks a block state up among the entries below the given index.
+     */
+    private Integer find(Object key, int limit) {
+        Integer index = parent != null ? parent.find(key, Math.min(limit, parentSize)) : null;
+        if (index != null)
+            return index;
+
+        index = indexes.get(key);
+        return index != null && index < limit ? index : null;
+    }
+
+    /**
+     * Gets a block state of the palette.
+     *
+     * @param index The index of the block state.
+     * @return The block state.
+     * @throws IOException if there's no block state with such index.
+     */
+    public CompoundTag get(int index) throws IOException {
+        if (index >= 0 && index < parentSize)
+            return parent.get(index);
+
+        synchronized (entries) {
+            if (index < 0 || index >= parentSize + entries.size())
+                throw new IOException("Unknown palette entry " + index + ", the palette only has " + (parentSize + entries.size()) + " entries");
+
+            return entries.get(index - parentSize).clone();
+        }
+    }
+
+    /**
+     * Gets every block state of the palette, in index order. The block states
+     * are shared with the palette, so they must not be modified.
+     *
+     * @return The block states.
+     */
+    public List<CompoundTag> getEntries() {
+        List<CompoundTag> states = new ArrayList<>();
+        collectEntries(states, Integer.MAX_VALUE);
+        return states;
+    }
+
+    private void collectEntries(List<CompoundTag> states, int limit) {
+        if (parent != null)
+            parent.collectEntries(states, Math.min(limit, parentSize));
+
+        synchronized (entries) {
+            int count = Math.min(entries.size(), limit - parentSize);
+            if (count > 0)
+                states.addAll(entries.subList(0, count));
+        }
+    }
+
+    /**
+     * Adds the block states of a stored palette. The stored palette must start with the
+     * same block states as this one, which is always the case for palettes written by
+     * the same world, as they only grow over time.
+     *
+     * @param states The block states of the stored palette, in index order.
+     * @return <code>true</code> if the palette could be extended, <code>false</code> if it doesn't match.
+     * @throws IOException if a block state could not be serialized.
+     */
+    public boolean extend(List<CompoundTag> states) throws IOException {
+        List<CompoundTag> parentStates = new ArrayList<>();
+        if (parent != null)
+            parent.collectEntries(parentStates, parentSize);
+
+        synchronized (entries) {
+            for (int i = 0; i < states.size(); i++) {
+                byte[] serializedState = serialize(states.get(i));
+
+                if (i < parentSize) {
+                    if (!Arrays.equals(serialize(parentStates.get(i)), serializedState))
+                        return false;
+                } else if (i < parentSize + entries.size()) {
+                    if (!Arrays.equals(serialize(entries.get(i - parentSize)), serializedState))
+                        return false;
+                } else {
+                    CompoundTag state = states.get(i).clone();
+                    entries.add(state);
+                    indexes.putIfAbsent(keyOf(state), i);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the key a block state is looked up with. Plain block states, made of a name and
+     * string properties, are keyed by their values, so looking them up doesn't serialize them.
+     * Anything else is keyed by its serialized form.
+     */
+    private static Object keyOf(CompoundTag state) throws IOException {
+        CompoundMap map = state.getValue();
+        Tag<?> name = map.get("Name");
+        Tag<?> properties = map.get("Properties");
+
+        if (name instanceof StringTag nameTag && map.size() == (properties == null ? 1 : 2)) {
+            if (properties == null)
+                return new BlockStateKey(state.getName(), nameTag.getValue(), Map.of());
+
+            if (properties instanceof CompoundTag propertiesTag && propertiesTag.getName().equals("Properties")) {
+                Map<String, String> propertyValues = new HashMap<>();
+                boolean plain = true;
+
+                for (Tag<?> property : propertiesTag.getValue().values()) {
+                    if (!(property instanceof StringTag propertyTag)) {
+                        plain = false;
+                        break;
+                    }
+
+                    propertyValues.put(propertyTag.getName(), propertyTag.getValue());
+                }
+
+                if (plain)
+                    return new BlockStateKey(state.getName(), nameTag.getValue(), propertyValues);
+            }
+        }
+
+        return ByteBuffer.wrap(serialize(state));
+    }
+
+    private static byte[] serialize(CompoundTag state) throws IOException {
+        ByteArrayOutputStream outByteStream = new ByteArrayOutputStream(64);
+        NBTOutputStream outStream = new NBTOutputStream(outByteStream, NBTInputStream.NO_COMPRESSION, ByteOrder.BIG_ENDIAN);
+        outStream.writeTag(state);
+
+        return outByteStream.toByteArray();
+    }
+
+    private record BlockStateKey(String tagName, String name, Map<String, String> properties) { }
+
+}
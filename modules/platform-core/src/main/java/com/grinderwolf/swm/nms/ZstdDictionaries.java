@@ -0,0 +1,105 @@
+package com.grinderwolf.swm.nms;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the trained zstd dictionaries worlds can be compressed with.
+ * Dictionaries are referenced by their zstd dictionary id, which every
+ * world stores in its header, so older dictionaries must be kept
+ * registered for as long as there are worlds using them.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ZstdDictionaries {
+
+    /** Dictionary id used by worlds compressed without a dictionary **/
+    public static final int NO_DICTIONARY = 0;
+
+    private static final Map<Integer, Dictionary> DICTIONARIES = new ConcurrentHashMap<>();
+    private static volatile int activeDictionaryId = NO_DICTIONARY;
+
+    /**
+     * Registers a trained dictionary.
+     *
+     * @param dictionary The raw dictionary, as produced by the zstd trainer.
+     * @return The id of the dictionary.
+     */
+    public static int register(byte[] dictionary) {
+        int id = (int) Zstd.getDictIdFromDict(dictionary);
+        if (id == NO_DICTIONARY)
+            throw new IllegalArgumentException("The provided data is not a zstd dictionary!");
+
+        DICTIONARIES.put(id, new Dictionary(dictionary, new ConcurrentHashMap<>(), new ZstdDictDecompress(dictionary)));
+
+        return id;
+    }
+
+    public static boolean isRegistered(int id) {
+        return id == NO_DICTIONARY || DICTIONARIES.containsKey(id);
+    }
+
+    /**
+     * Sets the dictionary newly saved worlds are going to be compressed with.
+     *
+     * @param id The id of a registered dictionary, or {@link #NO_DICTIONARY}.
+     */
+    public static void setActiveDictionary(int id) {
+        if (!isRegistered(id))
+            throw new IllegalArgumentException("Unknown dictionary " + Integer.toUnsignedString(id) + "!");
+
+        activeDictionaryId = id;
+    }
+
+    public static int getActiveDictionaryId() {
+        return activeDictionaryId;
+    }
+
+    /**
+     * Gets the compression side of a dictionary. Digested dictionaries carry
+     * their compression level, so one is kept for every level in use.
+     *
+     * @param id    The id of the dictionary.
+     * @param level The zstd compression level.
+     * @return The dictionary, or <code>null</code> for {@link #NO_DICTIONARY}.
+     */
+    public static ZstdDictCompress getCompressDictionary(int id, int level) {
+        if (id == NO_DICTIONARY)
+            return null;
+
+        Dictionary dictionary = DICTIONARIES.get(id);
+        if (dictionary == null)
+            throw new IllegalArgumentException("Unknown dictionary " + Integer.toUnsignedString(id) + "!");
+
+        return dictionary.compress().computeIfAbsent(level, key -> new ZstdDictCompress(dictionary.raw(), key));
+    }
+
+    /**
+     * Gets the decompression side of a dictionary.
+     *
+     * @param id The id of the dictionary.
+     * @return The dictionary, or <code>null</code> for {@link #NO_DICTIONARY}.
+     * @throws IOException if the dictionary is not registered.
+     */
+    public static ZstdDictDecompress getDecompressDictionary(int id) throws IOException {
+        if (id == NO_DICTIONARY)
+            return null;
+
+        Dictionary dictionary = DICTIONARIES.get(id);
+        if (dictionary == null)
+            throw new IOException("Missing zstd dictionary " + Integer.toUnsignedString(id) + ", it has to be installed to read this world");
+
+        return dictionary.decompress();
+    }
+
+    private record Dictionary(byte[] raw, Map<Integer, ZstdDictCompress> compress, ZstdDictDecompress decompress) {
+
+    }
+
+}
@@ -27,6 +27,7 @@ import java.util.logging.Level;
 public class CustomWorldServer extends WorldServer {
 
     private static final TicketType<Unit> SWM_TICKET = TicketType.a("swm-chunk", (a, b) -> 0);
+    private static final Set<String> AIR_BLOCK_NAMES = Set.of("minecraft:air", "minecraft:cave_air", "minecraft:void_air");
     private static final ExecutorService WORLD_SAVER_SERVICE = Executors.newFixedThreadPool(
             4, new ThreadFactoryBuilder().setNameFormat("SWM Pool Thread #%1$d").build()
     );
@@ -110,14 +111,34 @@ public class CustomWorldServer extends WorldServer {
             try {
                 Bukkit.getLogger().log(Level.INFO, "Saving world " + slimeWorld.getName() + "...");
                 long start = System.currentTimeMillis();
-                byte[] serializedWorld = slimeWorld.serialize();
-                slimeWorld.getLoader().saveWorld(slimeWorld.getName(), serializedWorld, false);
+                slimeWorld.save();
                 Bukkit.getLogger().log(Level.INFO, "World " + slimeWorld.getName() + " saved in " + (System.currentTimeMillis() - start) + "ms.");
             } catch (IOException | IllegalStateException ex) {
                 //noinspection CallToPrintStackTrace
                 ex.printStackTrace();
             }
         }
+
+        // Folding the deltas rewrites the whole world, so it's left out of the save itself
+        if (slimeWorld.needsCompaction() && !MinecraftServer.getServer().isStopped())
+            WORLD_SAVER_SERVICE.execute(this::compact);
+    }
+
+    private void compact() {
+        synchronized (saveLock) {
+            if (!slimeWorld.needsCompaction())
+                return;
+
+            try {
+                Bukkit.getLogger().log(Level.INFO, "Compacting world " + slimeWorld.getName() + "...");
+                long start = System.currentTimeMillis();
+                slimeWorld.compact();
+                Bukkit.getLogger().log(Level.INFO, "World " + slimeWorld.getName() + " compacted in " + (System.currentTimeMillis() - start) + "ms.");
+            } catch (IOException | IllegalStateException ex) {
+                //noinspection CallToPrintStackTrace
+                ex.printStackTrace();
+            }
+        }
     }
 
     ProtoChunkExtension getChunk(int x, int z) {
@@ -176,15 +197,26 @@ public class CustomWorldServer extends WorldServer {
         for (int sectionId = 0; sectionId < chunk.getSections().length; sectionId++) {
             SlimeChunkSection slimeSection = chunk.getSections()[sectionId];
             if (slimeSection != null) {
-                ChunkSection section = new ChunkSection(sectionId << 4);
-                section.getBlocks().a((NBTTagList) Converter.convertTag(slimeSection.palette()), slimeSection.blockStates());
-
+                // Light might not have been stored (see the lightStorage property). Chunks built
+                // here are never flagged as lit, so the light engine relights them on its own
+                // thread once they're loaded, filling in the missing sections
                 if (slimeSection.blockLight() != null)
                     lightEngine.a(EnumSkyBlock.BLOCK, SectionPosition.a(pos, sectionId), Converter.pureToNms(slimeSection.blockLight()), true);
 
                 if (slimeSection.skyLight() != null)
                     lightEngine.a(EnumSkyBlock.SKY, SectionPosition.a(pos, sectionId), Converter.pureToNms(slimeSection.skyLight()), true);
 
+                List<CompoundTag> palette = slimeSection.palette().getValue();
+
+                // Sections only made of air don't need to exist at all, just like in vanilla
+                if (palette.size() == 1 && isAir(palette.get(0)))
+                    continue;
+
+                // Block states are copied as they are when their size matches the palette,
+                // which is always the case for sections made of a single block state
+                ChunkSection section = new ChunkSection(sectionId << 4);
+                section.getBlocks().a((NBTTagList) Converter.convertTag(slimeSection.palette()), slimeSection.blockStates());
+
                 section.recalcBlockCounts();
                 sections[sectionId] = section;
             }
@@ -275,8 +307,13 @@ public class CustomWorldServer extends WorldServer {
         return nmsChunk;
     }
 
+    private static boolean isAir(CompoundTag blockState) {
+        return blockState.getStringValue("Name").filter(AIR_BLOCK_NAMES::contains).isPresent();
+    }
+
     void saveChunk(Chunk chunk) {
         SlimeChunk slimeChunk = slimeWorld.getChunk(chunk.getPos().x, chunk.getPos().z);
+        slimeWorld.markChunkDirty(chunk.getPos().x, chunk.getPos().z);
 
         // In case somehow the chunk object changes (might happen for some reason)
         if (slimeChunk instanceof NMSSlimeChunk cast) {
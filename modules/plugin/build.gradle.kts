@@ -17,6 +17,7 @@ dependencies {
     packaged(libs.commonsIo)
     packaged(libs.configurateYaml)
     packaged(libs.zstdJni)
+    packaged(libs.lz4Java)
 }
 
 tasks.processResources {
@@ -3,15 +3,18 @@ package com.grinderwolf.swm.plugin;
 import com.flowpowered.nbt.CompoundMap;
 import com.flowpowered.nbt.CompoundTag;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.grinderwolf.swm.api.SlimePlugin;
 import com.grinderwolf.swm.api.event.*;
 import com.grinderwolf.swm.api.exception.*;
 import com.grinderwolf.swm.api.loader.SlimeLoader;
 import com.grinderwolf.swm.api.world.SlimeWorld;
 import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import com.grinderwolf.swm.nms.ChunkMap;
 import com.grinderwolf.swm.nms.CraftSlimeWorld;
 import com.grinderwolf.swm.nms.SlimeNMS;
 import com.grinderwolf.swm.nms.SlimeNMSPlatform;
+import com.grinderwolf.swm.nms.WorldPalette;
 import com.grinderwolf.swm.plugin.command.CommandManager;
 import com.grinderwolf.swm.plugin.config.ConfigManager;
 import com.grinderwolf.swm.plugin.config.WorldData;
@@ -20,7 +23,9 @@ import com.grinderwolf.swm.plugin.world.upgrader.WorldUpgraderService;
 import com.grinderwolf.swm.plugin.loader.LoaderUtils;
 import com.grinderwolf.swm.plugin.logging.Logging;
 import com.grinderwolf.swm.plugin.world.WorldUnlocker;
+import com.grinderwolf.swm.plugin.world.compression.DictionaryManager;
 import com.grinderwolf.swm.plugin.world.importer.WorldImporter;
+import com.grinderwolf.swm.plugin.world.template.InstancePool;
 import lombok.Getter;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
@@ -32,10 +37,14 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
@@ -45,11 +54,14 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
     @Getter
     private final SlimeNMS platform;
     private final Map<String, SlimeWorld> loadedWorlds;
+    private final Map<String, InstancePool> instancePools;
+    private ExecutorService ioExecutor; // Blocking world I/O, so it doesn't take the threads of the common pool
 
     public SWMPlugin() {
         INSTANCE = this;
         this.platform = new SlimeNMSPlatform(this);
         this.loadedWorlds = new ConcurrentHashMap<>();
+        this.instancePools = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -61,6 +73,11 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
             return;
         }
 
+        int maxConcurrentOperations = ConfigManager.getMainConfig().getWorldIOConfig().getMaxConcurrentOperations();
+        ioExecutor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentOperations), new ThreadFactoryBuilder()
+                .setNameFormat("SWM World I/O Thread #%1$d").setDaemon(true).build());
+
+        DictionaryManager.loadDictionaries();
         LoaderUtils.registerLoaders();
 
         // Default world override
@@ -115,25 +132,43 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
 
     @Override
     public void onDisable() {
-        Bukkit.getWorlds().stream()
+        instancePools.values().forEach(InstancePool::close);
+        instancePools.clear();
+        InstancePool.shutdown();
+
+        if (ioExecutor == null) // The config failed to load, so no world has been loaded either
+            return;
+
+        // Worlds are serialized straight into their save, in the I/O threads, so only as many of them as
+        // there are threads are held at once. The worlds aren't ticking anymore, so they can't change meanwhile.
+        List<CompletableFuture<Void>> saves = Bukkit.getWorlds().stream()
                 .map(platform::getSlimeWorld)
                 .filter(Objects::nonNull)
                 .filter(world -> !world.isReadOnly())
                 .map(world -> (CraftSlimeWorld) world)
-                .forEach(world -> {
+                .map(world -> {
                     SlimeLoader loader = world.getLoader();
                     String worldName = world.getName();
 
-                    try {
-                        loader.saveWorld(worldName, world.serialize(), world.isLocked());
-
-                        if (loader.isWorldLocked(worldName)) {
-                            loader.unlockWorld(worldName);
+                    return loader.saveWorldAsync(worldName, world::serialize, world.isLocked(), ioExecutor).thenRun(() -> {
+                        try {
+                            if (loader.isWorldLocked(worldName)) {
+                                loader.unlockWorld(worldName);
+                            }
+                        } catch (IOException | UnknownWorldException ex) {
+                            throw new CompletionException(ex);
                         }
-                    } catch (IOException | UnknownWorldException ex) {
-                        Logging.error("Failed to save world '%s'!".formatted(worldName), ex);
-                    }
-                });
+                    }).exceptionally(ex -> {
+                        Logging.error("Failed to save world '%s'!".formatted(worldName), ex instanceof CompletionException ? ex.getCause() : ex);
+                        return null;
+                    });
+                })
+                .toList();
+
+        // The server can't stop before all of them are done
+        CompletableFuture.allOf(saves.toArray(CompletableFuture[]::new)).join();
+        ioExecutor.shutdown();
+        LoaderUtils.closeLoaders();
     }
 
     @EventHandler
@@ -149,35 +184,41 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
         List<String> erroredWorlds = new ArrayList<>();
         WorldsConfig config = ConfigManager.getWorldConfig();
 
-        for (Map.Entry<String, WorldData> entry : config.getWorlds().entrySet()) {
+        // A few worlds are read and decoded ahead of the one being waited for, so the loaders can overlap
+        // their I/O, while no more worlds are being streamed at once than there are I/O threads
+        List<Map.Entry<String, WorldData>> startupWorlds = config.getWorlds().entrySet().stream()
+                .filter(entry -> entry.getValue().isLoadOnStartup())
+                .toList();
+        int readAhead = Math.max(1, ConfigManager.getMainConfig().getWorldIOConfig().getMaxConcurrentOperations());
+        Map<String, CompletableFuture<CraftSlimeWorld>> worldReads = new HashMap<>();
+        int nextRead = 0;
+
+        for (Map.Entry<String, WorldData> entry : startupWorlds) {
             String worldName = entry.getKey();
-            WorldData worldData = entry.getValue();
-
-            if (worldData.isLoadOnStartup()) {
-                try {
-                    SlimeLoader loader = getLoader(worldData.getDataSource());
-                    if (loader == null)
-                        throw new IllegalArgumentException("invalid data source %s".formatted(worldData.getDataSource()));
-
-                    SlimePropertyMap propertyMap = worldData.toPropertyMap();
-                    SlimeWorld world = loadWorld(loader, worldName, worldData.isReadOnly(), propertyMap);
-                    loadedWorlds.put(worldName, world);
-                } catch (UnknownWorldException ex) {
-                    Logging.error("Failed to load world '%s': world does not exist, are you sure you've set the correct data source?", worldName);
-                    erroredWorlds.add(worldName);
-                } catch (NewerFormatException ex) {
-                    Logging.error("Failed to load world '%s': world is serialized in a newer Slime Format version (%s) that SWM does not understand.", worldName, ex.getMessage());
-                    erroredWorlds.add(worldName);
-                } catch (WorldInUseException ex) {
-                    Logging.error("Failed to load world '%s': world is in use! If you think this is a mistake, please wait some time and try again.", worldName);
-                    erroredWorlds.add(worldName);
-                } catch (CorruptedWorldException ex) {
-                    Logging.error("Failed to load world '%s': world seems to be corrupted.", worldName);
-                    erroredWorlds.add(worldName);
-                } catch (Exception ex) {
-                    Logging.error("Failed to load world '%s'!".formatted(worldName), ex);
-                    erroredWorlds.add(worldName);
-                }
+
+            for (; nextRead < startupWorlds.size() && worldReads.size() < readAhead; nextRead++) {
+                Map.Entry<String, WorldData> nextWorld = startupWorlds.get(nextRead);
+                worldReads.put(nextWorld.getKey(), readStartupWorldAsync(nextWorld.getKey(), nextWorld.getValue()));
+            }
+
+            try {
+                SlimeWorld world = awaitWorldRead(worldReads.remove(worldName));
+                loadedWorlds.put(worldName, world);
+            } catch (UnknownWorldException ex) {
+                Logging.error("Failed to load world '%s': world does not exist, are you sure you've set the correct data source?", worldName);
+                erroredWorlds.add(worldName);
+            } catch (NewerFormatException ex) {
+                Logging.error("Failed to load world '%s': world is serialized in a newer Slime Format version (%s) that SWM does not understand.", worldName, ex.getMessage());
+                erroredWorlds.add(worldName);
+            } catch (WorldInUseException ex) {
+                Logging.error("Failed to load world '%s': world is in use! If you think this is a mistake, please wait some time and try again.", worldName);
+                erroredWorlds.add(worldName);
+            } catch (CorruptedWorldException ex) {
+                Logging.error("Failed to load world '%s': world seems to be corrupted.", worldName);
+                erroredWorlds.add(worldName);
+            } catch (Exception ex) {
+                Logging.error("Failed to load world '%s'!".formatted(worldName), ex);
+                erroredWorlds.add(worldName);
             }
         }
 
@@ -185,6 +226,34 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
         return erroredWorlds;
     }
 
+    private CompletableFuture<CraftSlimeWorld> readStartupWorldAsync(String worldName, WorldData worldData) {
+        try {
+            SlimeLoader loader = getLoader(worldData.getDataSource());
+            if (loader == null)
+                throw new IllegalArgumentException("invalid data source %s".formatted(worldData.getDataSource()));
+
+            return readWorldAsync(loader, worldName, worldData.isReadOnly(), worldData.toPropertyMap());
+        } catch (IllegalArgumentException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    private static CraftSlimeWorld awaitWorldRead(CompletableFuture<CraftSlimeWorld> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+
+            // Failures are wrapped by readWorldAsync, so they can be told apart as usual
+            if (cause instanceof IllegalStateException && cause.getCause() instanceof Exception exception)
+                throw exception;
+            if (cause instanceof Exception exception)
+                throw exception;
+
+            throw ex;
+        }
+    }
+
     @Override
     public SlimeWorld getWorld(String worldName) {
         return worldName != null ? loadedWorlds.get(worldName) : null;
@@ -206,13 +275,44 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
         Objects.requireNonNull(worldName, "World name cannot be null");
         Objects.requireNonNull(propertyMap, "Properties cannot be null");
 
+        CraftSlimeWorld world = readWorld(loader, worldName, readOnly, propertyMap);
+        registerWorld(world);
+        return world;
+    }
+
+    /**
+     * Reads and upgrades a world, without registering it as a loaded world.
+     *
+     * @param loader      The loader to read the world from.
+     * @param worldName   The name of the world.
+     * @param readOnly    Whether the world is read-only.
+     * @param propertyMap The properties overriding the stored ones.
+     * @return The world.
+     */
+    public CraftSlimeWorld readWorld(
+            SlimeLoader loader,
+            String worldName,
+            boolean readOnly,
+            SlimePropertyMap propertyMap
+    ) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException {
         Logging.info("Loading world '%s'...", worldName);
         long start = System.currentTimeMillis();
-        byte[] serializedWorld = loader.loadWorld(worldName, readOnly);
+        InputStream worldStream = loader.openWorldStream(worldName, readOnly);
+        return decodeWorld(loader, worldName, worldStream, readOnly, propertyMap, start);
+    }
+
+    private CraftSlimeWorld decodeWorld(
+            SlimeLoader loader,
+            String worldName,
+            InputStream worldStream,
+            boolean readOnly,
+            SlimePropertyMap propertyMap,
+            long start
+    ) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException {
         CraftSlimeWorld world;
 
-        try {
-            world = LoaderUtils.deserializeWorld(loader, worldName, serializedWorld, propertyMap, readOnly);
+        try (worldStream) {
+            world = LoaderUtils.deserializeWorld(loader, worldName, worldStream, propertyMap, readOnly);
             if (world.getVersion() > platform.getWorldVersion()) {
                 throw new NewerFormatException(world.getVersion());
             } else if (world.getVersion() < platform.getWorldVersion()) {
@@ -227,27 +327,56 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
 
         long timeTaken = System.currentTimeMillis() - start;
         Logging.info("World '%s' loaded in %d ms.", worldName, timeTaken);
-        registerWorld(world);
         return world;
     }
 
     @Override
     public CompletableFuture<SlimeWorld> loadWorldAsync(SlimeLoader loader, String worldName, boolean readOnly, SlimePropertyMap slimePropertyMap) {
         return CompletableFuture.supplyAsync(() -> {
+            var preEvent = new AsyncPreLoadWorldEvent(loader, worldName, readOnly, slimePropertyMap);
+            Bukkit.getPluginManager().callEvent(preEvent);
+            return preEvent;
+        }).thenCompose(preEvent -> {
+            if (preEvent.isCancelled())
+                return CompletableFuture.<CraftSlimeWorld>completedFuture(null);
+
+            return readWorldAsync(preEvent.getSlimeLoader(), preEvent.getWorldName(), preEvent.isReadOnly(), preEvent.getSlimePropertyMap());
+        }).thenApply(world -> {
+            if (world == null)
+                return null;
+
+            registerWorld(world);
+            var postEvent = new AsyncPostLoadWorldEvent(world);
+            Bukkit.getPluginManager().callEvent(postEvent);
+            return postEvent.getWorld();
+        });
+    }
+
+    private CompletableFuture<CraftSlimeWorld> readWorldAsync(
+            SlimeLoader loader,
+            String worldName,
+            boolean readOnly,
+            SlimePropertyMap propertyMap
+    ) {
+        Objects.requireNonNull(loader, "Loader cannot be null");
+        Objects.requireNonNull(worldName, "World name cannot be null");
+        Objects.requireNonNull(propertyMap, "Properties cannot be null");
+
+        Logging.info("Loading world '%s'...", worldName);
+        long start = System.currentTimeMillis();
+
+        // The world is decoded straight from its stream, which reads it from the data source,
+        // so decoding is blocking I/O as well and runs in the same threads the stream is opened in
+        return loader.openWorldStreamAsync(worldName, readOnly, ioExecutor).handleAsync((worldStream, ex) -> {
             try {
-                var preEvent = new AsyncPreLoadWorldEvent(loader, worldName, readOnly, slimePropertyMap);
-                Bukkit.getPluginManager().callEvent(preEvent);
-                if (preEvent.isCancelled())
-                    return null;
+                if (ex != null)
+                    throw ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
 
-                var world = loadWorld(preEvent.getSlimeLoader(), preEvent.getWorldName(), preEvent.isReadOnly(), preEvent.getSlimePropertyMap());
-                var postEvent = new AsyncPostLoadWorldEvent(world);
-                Bukkit.getPluginManager().callEvent(postEvent);
-                return postEvent.getWorld();
-            } catch (UnknownWorldException | IOException | CorruptedWorldException | NewerFormatException | WorldInUseException ex) {
-                throw new IllegalStateException(ex);
+                return decodeWorld(loader, worldName, worldStream, readOnly, propertyMap, start);
+            } catch (Throwable throwable) {
+                throw new IllegalStateException(throwable);
             }
-        });
+        }, ioExecutor);
     }
 
     @Override
@@ -270,16 +399,17 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
         CraftSlimeWorld world = new CraftSlimeWorld(
                 loader,
                 worldName,
-                new HashMap<>(),
+                new ChunkMap(),
                 new CompoundTag("", new CompoundMap()),
                 new ArrayList<>(),
+                new WorldPalette(),
                 platform.getWorldVersion(),
                 propertyMap,
                 readOnly,
                 !readOnly
         );
 
-        loader.saveWorld(worldName, world.serialize(), !readOnly);
+        loader.saveWorld(worldName, world::serialize, !readOnly);
 
         long timeTaken = System.currentTimeMillis() - start;
         Logging.info("World '%s' created in %d ms.", worldName, timeTaken);
@@ -351,8 +481,9 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
             }
         }
 
-        byte[] serializedWorld = currentLoader.loadWorld(worldName, false);
-        newLoader.saveWorld(worldName, serializedWorld, leaveLock);
+        try (InputStream worldStream = currentLoader.openWorldStream(worldName, false)) {
+            newLoader.saveWorld(worldName, worldStream::transferTo, leaveLock);
+        }
         currentLoader.deleteWorld(worldName);
     }
 
@@ -374,6 +505,44 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
         });
     }
 
+    @Override
+    public void registerInstancePool(SlimeLoader loader, String templateName, int targetSize, SlimePropertyMap propertyMap) {
+        Objects.requireNonNull(loader, "Loader cannot be null");
+        Objects.requireNonNull(templateName, "Template name cannot be null");
+        Objects.requireNonNull(propertyMap, "Properties cannot be null");
+
+        InstancePool pool = new InstancePool(loader, templateName, targetSize, propertyMap);
+        InstancePool oldPool = instancePools.put(templateName, pool);
+
+        if (oldPool != null)
+            oldPool.close();
+
+        pool.refill();
+    }
+
+    @Override
+    public void unregisterInstancePool(String templateName) {
+        Objects.requireNonNull(templateName, "Template name cannot be null");
+
+        InstancePool pool = instancePools.remove(templateName);
+        if (pool != null)
+            pool.close();
+    }
+
+    @Override
+    public CompletableFuture<SlimeWorld> takeInstanceAsync(String templateName) {
+        Objects.requireNonNull(templateName, "Template name cannot be null");
+
+        InstancePool pool = instancePools.get(templateName);
+        if (pool == null)
+            throw new IllegalArgumentException("There's no instance pool for template '%s'!".formatted(templateName));
+
+        return pool.take().thenApply(instance -> {
+            registerWorld(instance);
+            return instance;
+        });
+    }
+
     // TODO #importAndLoadWorld(...) (OR refactor whole API)
 
     @Override
@@ -395,15 +564,13 @@ public class SWMPlugin extends JavaPlugin implements SlimePlugin, Listener {
             throw new WorldLoadedException(worldDirName);
 
         CraftSlimeWorld world = WorldImporter.readFromDirectory(worldDir);
-        byte[] serializedWorld;
 
         try {
-            serializedWorld = world.serialize();
+            loader.saveWorld(worldName, world::serialize, false);
         } catch (IndexOutOfBoundsException ex) {
             throw new WorldTooBigException(worldDirName);
         }
 
-        loader.saveWorld(worldName, serializedWorld, false);
         world.setLoader(loader);
         return world;
     }
@@ -37,6 +37,8 @@ public class CommandManager implements TabExecutor {
         this.commands.put("list", new WorldListCmd());
         this.commands.put("dslist", new DSListCmd());
         this.commands.put("migrate", new MigrateWorldCmd());
+        this.commands.put("migrate-layout", new MigrateLayoutCmd());
+        this.commands.put("dictionary", new TrainDictionaryCmd());
         this.commands.put("delete", new DeleteWorldCmd());
         this.commands.put("import", new ImportWorldCmd());
         this.commands.put("reload", new ReloadConfigCmd());
@@ -11,6 +11,7 @@ import com.grinderwolf.swm.plugin.config.WorldData;
 import com.grinderwolf.swm.plugin.config.WorldsConfig;
 import com.grinderwolf.swm.plugin.loader.LoaderUtils;
 import com.grinderwolf.swm.plugin.logging.Logging;
+import com.grinderwolf.swm.plugin.world.template.TemplateCache;
 import lombok.Getter;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -77,7 +78,7 @@ public class CloneWorldCmd implements Subcommand {
             Bukkit.getScheduler().runTaskAsynchronously(SWMPlugin.getInstance(), () -> {
                 try {
                     long start = System.currentTimeMillis();
-                    SlimeWorld slimeWorld = SWMPlugin.getInstance().loadWorld(initLoader, templateWorldName, true, worldData.toPropertyMap()).clone(worldName, loader);
+                    SlimeWorld slimeWorld = TemplateCache.getTemplate(initLoader, templateWorldName).clone(worldName, loader, worldData.toPropertyMap());
                     Bukkit.getScheduler().runTask(SWMPlugin.getInstance(), () -> {
                         try {
                             SWMPlugin.getInstance().generateWorld(slimeWorld);
@@ -11,6 +11,7 @@ import com.grinderwolf.swm.plugin.config.WorldData;
 import com.grinderwolf.swm.plugin.config.WorldsConfig;
 import com.grinderwolf.swm.plugin.loader.LoaderUtils;
 import com.grinderwolf.swm.plugin.logging.Logging;
+import com.grinderwolf.swm.plugin.world.template.TemplateCache;
 import lombok.Getter;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -89,6 +90,7 @@ public class DeleteWorldCmd implements Subcommand {
 
                             long start = System.currentTimeMillis();
                             loader.deleteWorld(worldName);
+                            TemplateCache.invalidate(loader, worldName);
 
                             // Now let's delete it from the config file
                             WorldsConfig config = ConfigManager.getWorldConfig();
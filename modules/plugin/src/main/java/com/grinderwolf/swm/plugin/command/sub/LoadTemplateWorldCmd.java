@@ -13,6 +13,7 @@ import com.grinderwolf.swm.plugin.config.ConfigManager;
 import com.grinderwolf.swm.plugin.config.WorldData;
 import com.grinderwolf.swm.plugin.config.WorldsConfig;
 import com.grinderwolf.swm.plugin.logging.Logging;
+import com.grinderwolf.swm.plugin.world.template.TemplateCache;
 import lombok.Getter;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -72,7 +73,7 @@ public class LoadTemplateWorldCmd implements Subcommand {
                     if (loader == null)
                         throw new IllegalArgumentException("invalid data source: %s".formatted(worldData.getDataSource()));
 
-                    SlimeWorld slimeWorld = SWMPlugin.getInstance().loadWorld(loader, templateWorldName, true, worldData.toPropertyMap()).clone(worldName);
+                    SlimeWorld slimeWorld = TemplateCache.getTemplate(loader, templateWorldName).clone(worldName, worldData.toPropertyMap());
                     Bukkit.getScheduler().runTask(SWMPlugin.getInstance(), () -> {
                         try {
                             SWMPlugin.getInstance().generateWorld(slimeWorld);
@@ -0,0 +1,55 @@
+package com.grinderwolf.swm.plugin.command.sub;
+
+import com.grinderwolf.swm.api.loader.SlimeLoader;
+import com.grinderwolf.swm.plugin.SWMPlugin;
+import com.grinderwolf.swm.plugin.loader.LoaderUtils;
+import com.grinderwolf.swm.plugin.loader.file.FileLoader;
+import com.grinderwolf.swm.plugin.logging.Logging;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+
+import java.io.IOException;
+
+import static com.grinderwolf.swm.plugin.command.CommandManager.COMMAND_PREFIX;
+
+@Getter
+public class MigrateLayoutCmd implements Subcommand {
+
+    private final String usage = "migrate-layout";
+    private final String description = "Move the worlds of the file data source to the layout set in sources.yml.";
+    private final String permission = "swm.migratelayout";
+
+    @Override
+    public boolean onCommand(CommandSender sender, String[] args) {
+        SlimeLoader loader = LoaderUtils.getLoader("file");
+
+        if (!(loader instanceof FileLoader fileLoader)) {
+            sender.sendMessage(COMMAND_PREFIX + ChatColor.RED + "The file data source is not available.");
+            return true;
+        }
+
+        sender.sendMessage(COMMAND_PREFIX + ChatColor.GRAY + "Moving the worlds of the file data source. This might take a while...");
+
+        Bukkit.getScheduler().runTaskAsynchronously(SWMPlugin.getInstance(), () -> {
+            try {
+                long start = System.currentTimeMillis();
+                int movedWorlds = fileLoader.migrateLayout();
+
+                sender.sendMessage(COMMAND_PREFIX + ChatColor.GREEN + "Moved " + ChatColor.YELLOW + movedWorlds
+                        + ChatColor.GREEN + " worlds in " + (System.currentTimeMillis() - start) + "ms!");
+            } catch (IOException ex) {
+                if (!(sender instanceof ConsoleCommandSender)) {
+                    sender.sendMessage(COMMAND_PREFIX + ChatColor.RED + "Failed to move the worlds. Take a look at the server console for more information.");
+                }
+
+                Logging.error("Failed to move the worlds of the file data source!", ex);
+            }
+        });
+
+        return true;
+    }
+
+}
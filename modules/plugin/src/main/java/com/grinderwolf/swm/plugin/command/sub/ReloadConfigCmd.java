@@ -3,6 +3,7 @@ package com.grinderwolf.swm.plugin.command.sub;
 
 import com.grinderwolf.swm.plugin.config.ConfigManager;
 import com.grinderwolf.swm.plugin.logging.Logging;
+import com.grinderwolf.swm.plugin.world.compression.DictionaryManager;
 import lombok.Getter;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
@@ -31,6 +32,7 @@ public class ReloadConfigCmd implements Subcommand {
             return true;
         }
 
+        DictionaryManager.loadDictionaries();
         sender.sendMessage(COMMAND_PREFIX + ChatColor.GREEN + "Config reloaded.");
         return true;
     }
@@ -0,0 +1,86 @@
+package com.grinderwolf.swm.plugin.command.sub;
+
+import com.grinderwolf.swm.api.loader.SlimeLoader;
+import com.grinderwolf.swm.plugin.SWMPlugin;
+import com.grinderwolf.swm.plugin.loader.LoaderUtils;
+import com.grinderwolf.swm.plugin.logging.Logging;
+import com.grinderwolf.swm.plugin.world.compression.DictionaryManager;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.grinderwolf.swm.plugin.command.CommandManager.COMMAND_PREFIX;
+
+@Getter
+public class TrainDictionaryCmd implements Subcommand {
+
+    private final String usage = "dictionary <data-source> [size-in-kb]";
+    private final String description = "Train a compression dictionary out of the worlds inside a data source.";
+    private final String permission = "swm.dictionary";
+
+    @Override
+    public boolean onCommand(CommandSender sender, String[] args) {
+        if (args.length > 0) {
+            int dictionarySize;
+
+            if (args.length == 1) {
+                dictionarySize = DictionaryManager.DEFAULT_DICTIONARY_SIZE;
+            } else {
+                String sizeString = args[1];
+                try {
+                    int sizeKb = Integer.parseInt(sizeString);
+                    if (sizeKb < 1 || sizeKb > 1024) {
+                        throw new NumberFormatException();
+                    }
+
+                    dictionarySize = sizeKb * 1024;
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(COMMAND_PREFIX + ChatColor.RED + "'" + sizeString + "' is not a valid size, it must be between 1 and 1024.");
+                    return true;
+                }
+            }
+
+            String source = args[0];
+            SlimeLoader loader = LoaderUtils.getLoader(source);
+
+            if (loader == null) {
+                sender.sendMessage(COMMAND_PREFIX + ChatColor.RED + "Unknown data source " + source + ".");
+                return true;
+            }
+
+            sender.sendMessage(COMMAND_PREFIX + ChatColor.GRAY + "Training dictionary out of the worlds in data source " + source + ". This might take a while...");
+
+            Bukkit.getScheduler().runTaskAsynchronously(SWMPlugin.getInstance(), () -> {
+                try {
+                    long start = System.currentTimeMillis();
+                    int dictionaryId = DictionaryManager.trainDictionary(loader, dictionarySize);
+
+                    sender.sendMessage(COMMAND_PREFIX + ChatColor.GREEN + "Dictionary " + ChatColor.YELLOW + Integer.toUnsignedString(dictionaryId)
+                            + ChatColor.GREEN + " trained in " + (System.currentTimeMillis() - start) + "ms! Set it in main.yml and reload the config to start using it.");
+                } catch (IOException ex) {
+                    if (!(sender instanceof ConsoleCommandSender)) {
+                        sender.sendMessage(COMMAND_PREFIX + ChatColor.RED + "Failed to train dictionary. Take a look at the server console for more information.");
+                    }
+
+                    Logging.error("Failed to train dictionary using data source '%s'!".formatted(source), ex);
+                }
+            });
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, String[] args) {
+        return args.length == 2 ? new ArrayList<>(LoaderUtils.getAvailableLoadersNames()) : null;
+    }
+
+}
@@ -19,6 +19,9 @@ public class ConfigManager {
     private static final Path WORLDS_FILE = PLUGIN_DIR.resolve("worlds.yml");
     private static final Path SOURCES_FILE = PLUGIN_DIR.resolve("sources.yml");
 
+    @Getter
+    private static MainConfig mainConfig;
+
     @Getter
     private static WorldsConfig worldConfig;
     @Getter(value = AccessLevel.PACKAGE)
@@ -30,6 +33,10 @@ public class ConfigManager {
     public static void initialize() throws IOException {
         copyDefaultConfigs();
 
+        var mainConfigLoader = createLoader(MAIN_FILE);
+        mainConfig = mainConfigLoader.load().get(MainConfig.class);
+        mainConfigLoader.save(mainConfigLoader.createNode().set(MainConfig.class, mainConfig));
+
         worldConfigLoader = createLoader(WORLDS_FILE);
         worldConfig = worldConfigLoader.load().get(WorldsConfig.class);
         worldConfig.save();
@@ -43,6 +50,7 @@ public class ConfigManager {
         if (!Files.isDirectory(PLUGIN_DIR))
             Files.createDirectories(PLUGIN_DIR);
 
+        createDefaultConfig(MAIN_FILE, "main.yml");
         createDefaultConfig(WORLDS_FILE, "worlds.yml");
         createDefaultConfig(SOURCES_FILE, "sources.yml");
     }
@@ -19,6 +19,7 @@ public class DatasourcesConfig {
     public static class FileConfig {
 
         @Setting("path") private String path = "slime_worlds";
+        @Setting("layout") private String layout = "flat";
 
     }
 
@@ -0,0 +1,41 @@
+package com.grinderwolf.swm.plugin.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.spongepowered.configurate.objectmapping.ConfigSerializable;
+import org.spongepowered.configurate.objectmapping.meta.Setting;
+
+@Getter @Setter
+@ConfigSerializable
+public class MainConfig {
+
+    @Setting("compression") private CompressionConfig compressionConfig = new CompressionConfig();
+    @Setting("template-cache") private TemplateCacheConfig templateCacheConfig = new TemplateCacheConfig();
+    @Setting("world-io") private WorldIOConfig worldIOConfig = new WorldIOConfig();
+
+    @Getter @Setter
+    @ConfigSerializable
+    public static class CompressionConfig {
+
+        @Setting("dictionary") private long dictionary = 0;
+
+    }
+
+    @Getter @Setter
+    @ConfigSerializable
+    public static class TemplateCacheConfig {
+
+        @Setting("enabled") private boolean enabled = true;
+        @Setting("memory-budget") private long memoryBudget = 256;
+
+    }
+
+    @Getter @Setter
+    @ConfigSerializable
+    public static class WorldIOConfig {
+
+        @Setting("max-concurrent-operations") private int maxConcurrentOperations = 4;
+
+    }
+
+}
@@ -40,6 +40,19 @@ public class WorldData {
     @Setting("defaultBiome")
     private String defaultBiome = "minecraft:plains";
 
+    @Setting("lazyChunks")
+    private boolean lazyChunks = false;
+
+    @Setting("compressionCodec")
+    private String compressionCodec = "zstd";
+    @Setting("compressionLevel")
+    private int compressionLevel = 3;
+    @Setting("longDistanceMatching")
+    private boolean longDistanceMatching = false;
+
+    @Setting("lightStorage")
+    private String lightStorage = "full";
+
     @Setting("loadOnStartup")
     private boolean loadOnStartup = true;
     @Setting("readOnly")
@@ -92,6 +105,11 @@ public class WorldData {
         propertyMap.setValue(ENVIRONMENT, environment);
         propertyMap.setValue(WORLD_TYPE, worldType);
         propertyMap.setValue(DEFAULT_BIOME, defaultBiome);
+        propertyMap.setValue(LAZY_CHUNKS, lazyChunks);
+        propertyMap.setValue(COMPRESSION_CODEC, compressionCodec);
+        propertyMap.setValue(COMPRESSION_LEVEL, compressionLevel);
+        propertyMap.setValue(LONG_DISTANCE_MATCHING, longDistanceMatching);
+        propertyMap.setValue(LIGHT_STORAGE, lightStorage);
         return propertyMap;
     }
 
@@ -0,0 +1,219 @@
+package com.grinderwolf.swm.plugin.loader;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.grinderwolf.swm.plugin.logging.Logging;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the world locks held by this server alive. Locks expire once they haven't been
+ * renewed for {@link LoaderUtils#MAX_LOCK_TIME}, so every {@link LoaderUtils#LOCK_INTERVAL}
+ * all the locks of a data source are renewed at once, through a single {@link LeaseRenewer} call.
+ * <p>
+ * Renewals run in a thread of their own for each data source, so a slow data source neither
+ * delays the renewals of the others nor the worlds being locked and released meanwhile.
+ * Renewals taking longer than an interval are interrupted and counted as failed.
+ * <p>
+ * The delay between when a renewal was due and when it succeeded is tracked as the renewal lag.
+ * A warning is logged once it gets high enough for the locks to be at risk of expiring, and the
+ * lag and failed renewals are logged along with the amount of held locks every now and then.
+ */
+public final class LeaseManager implements Closeable {
+
+    // Only schedules the renewals, which run in the thread of their lease manager
+    private static final ScheduledExecutorService SERVICE = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("SWM Lease Scheduler Thread #%1$d").setDaemon(true).build());
+
+    private static final long LAG_WARNING_THRESHOLD = (LoaderUtils.MAX_LOCK_TIME - LoaderUtils.LOCK_INTERVAL) / 2;
+    private static final long RENEWAL_TIMEOUT = LoaderUtils.LOCK_INTERVAL;
+    private static final long STATS_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+
+    private final String dataSource;
+    private final LeaseRenewer renewer;
+    private final LeaseReleaser releaser;
+    private final ExecutorService executor;
+    private final ScheduledFuture<?> renewalTask;
+    private final ScheduledFuture<?> statsTask;
+
+    private final Set<String> leases = ConcurrentHashMap.newKeySet();
+
+    private Future<?> runningRenewal; // Only accessed from the scheduler thread
+    private long runningRenewalStart;
+    private volatile long lastRenewal = System.currentTimeMillis();
+
+    @Getter private volatile long renewalLag;
+    @Getter private volatile long maxRenewalLag;
+    private final AtomicLong failedRenewals = new AtomicLong();
+
+    public LeaseManager(String dataSource, LeaseRenewer renewer, LeaseReleaser releaser) {
+        this.dataSource = dataSource;
+        this.renewer = renewer;
+        this.releaser = releaser;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("SWM Lease Renewal Thread (" + dataSource + ")").setDaemon(true).build());
+
+        this.renewalTask = SERVICE.scheduleAtFixedRate(this::scheduleRenewal, LoaderUtils.LOCK_INTERVAL, LoaderUtils.LOCK_INTERVAL, TimeUnit.MILLISECONDS);
+        this.statsTask = SERVICE.scheduleAtFixedRate(this::logStats, STATS_INTERVAL, STATS_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Locks a world right away, and keeps its lock alive until it's released.
+     *
+     * @param worldName The name of the world.
+     * @throws IOException if the world could not be locked.
+     */
+    public void acquire(String worldName) throws IOException {
+        renewer.renew(List.of(worldName), System.currentTimeMillis());
+        leases.add(worldName);
+    }
+
+    /**
+     * Stops renewing the lock of a world. Once this method returns, the lock
+     * isn't going to be renewed anymore, so it can be cleared safely. A renewal
+     * that was already running clears it again afterwards, unless it has been
+     * locked by someone else in the meantime.
+     *
+     * @param worldName The name of the world.
+     */
+    public void release(String worldName) {
+        leases.remove(worldName);
+    }
+
+    public boolean holds(String worldName) {
+        return leases.contains(worldName);
+    }
+
+    public int getLeaseCount() {
+        return leases.size();
+    }
+
+    public long getFailedRenewals() {
+        return failedRenewals.get();
+    }
+
+    /**
+     * Stops renewing the locks of this data source for good. Locks still held
+     * aren't cleared, they expire on their own unless they're released by the loader.
+     */
+    @Override
+    public void close() {
+        renewalTask.cancel(false);
+        statsTask.cancel(false);
+
+        // A renewal still running would be using the connections the loader is about to close
+        executor.shutdownNow();
+    }
+
+    private void scheduleRenewal() {
+        if (runningRenewal != null && !runningRenewal.isDone()) {
+            if (System.currentTimeMillis() - runningRenewalStart < RENEWAL_TIMEOUT)
+                return;
+
+            // Interrupted, so it doesn't hold up the next renewal
+            runningRenewal.cancel(true);
+            failedRenewals.incrementAndGet();
+            Logging.error("Renewing the world locks of data source '%s' took longer than %d ms, giving up on it.", dataSource, RENEWAL_TIMEOUT);
+        }
+
+        runningRenewalStart = System.currentTimeMillis();
+        runningRenewal = executor.submit(this::renewLeases);
+    }
+
+    private void renewLeases() {
+        // Leases are copied, so they can be acquired and released while the renewal is running
+        List<String> renewedLeases = List.copyOf(leases);
+        long now = System.currentTimeMillis();
+
+        if (!renewedLeases.isEmpty()) {
+            try {
+                renewer.renew(renewedLeases, now);
+            } catch (IOException | RuntimeException ex) {
+                failedRenewals.incrementAndGet();
+                Logging.error("Failed to renew the world locks of data source '%s'!".formatted(dataSource), ex);
+                return;
+            }
+
+            clearReleasedLeases(renewedLeases, now);
+        }
+
+        // Renewals are due every interval, so anything past that is lag
+        renewalLag = Math.max(0, System.currentTimeMillis() - lastRenewal - LoaderUtils.LOCK_INTERVAL);
+        maxRenewalLag = Math.max(maxRenewalLag, renewalLag);
+        lastRenewal = now;
+
+        if (renewalLag > LAG_WARNING_THRESHOLD)
+            Logging.warn("World locks of data source '%s' have been renewed %d ms late, they may expire before the next renewal.", dataSource, renewalLag);
+    }
+
+    /**
+     * Clears the locks that have been released while they were being renewed, as the
+     * renewal may have locked them again after they were cleared by their loader.
+     */
+    private void clearReleasedLeases(List<String> renewedLeases, long lockMillis) {
+        // Worlds locked again in the meantime hold a new lease, which must be kept
+        List<String> releasedLeases = renewedLeases.stream()
+                .filter(worldName -> !leases.contains(worldName))
+                .toList();
+
+        if (releasedLeases.isEmpty())
+            return;
+
+        try {
+            releaser.release(releasedLeases, lockMillis);
+        } catch (IOException | RuntimeException ex) {
+            Logging.error("Failed to clear the released world locks of data source '%s'!".formatted(dataSource), ex);
+        }
+    }
+
+    private void logStats() {
+        // Nothing worth reporting for data sources that aren't used
+        if (leases.isEmpty() && failedRenewals.get() == 0)
+            return;
+
+        Logging.info("World locks of data source '%s': %d held, last renewal %d ms late (at most %d ms), %d failed renewals.",
+                dataSource, leases.size(), renewalLag, maxRenewalLag, failedRenewals.get());
+    }
+
+    @FunctionalInterface
+    public interface LeaseRenewer {
+
+        /**
+         * Sets the lock time of many worlds at once.
+         *
+         * @param worldNames The names of the worlds.
+         * @param lockMillis The new lock time.
+         * @throws IOException if the locks could not be updated.
+         */
+        void renew(Collection<String> worldNames, long lockMillis) throws IOException;
+
+    }
+
+    @FunctionalInterface
+    public interface LeaseReleaser {
+
+        /**
+         * Clears the locks of many worlds at once, but only the ones
+         * that are still set to the given lock time.
+         *
+         * @param worldNames The names of the worlds.
+         * @param lockMillis The lock time the locks must still be set to.
+         * @throws IOException if the locks could not be cleared.
+         */
+        void release(Collection<String> worldNames, long lockMillis) throws IOException;
+
+    }
+
+}
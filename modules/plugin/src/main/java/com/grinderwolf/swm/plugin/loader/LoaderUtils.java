@@ -2,21 +2,27 @@ package com.grinderwolf.swm.plugin.loader;
 
 import com.flowpowered.nbt.*;
 import com.flowpowered.nbt.stream.NBTInputStream;
-import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictDecompress;
 import com.grinderwolf.swm.api.exception.CorruptedWorldException;
 import com.grinderwolf.swm.api.exception.NewerFormatException;
 import com.grinderwolf.swm.api.loader.SlimeLoader;
-import com.grinderwolf.swm.api.util.NibbleArray;
 import com.grinderwolf.swm.api.util.SlimeFormat;
 import com.grinderwolf.swm.api.world.SlimeChunk;
 import com.grinderwolf.swm.api.world.SlimeChunkSection;
+import com.grinderwolf.swm.api.world.properties.SlimeProperties;
 import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
-import com.grinderwolf.swm.nms.CraftSlimeChunk;
-import com.grinderwolf.swm.nms.CraftSlimeChunkSection;
+import com.grinderwolf.swm.nms.ChunkMap;
+import com.grinderwolf.swm.nms.CompressionCodec;
 import com.grinderwolf.swm.nms.CraftSlimeWorld;
+import com.grinderwolf.swm.nms.LazySlimeChunk;
+import com.grinderwolf.swm.nms.LightStorage;
+import com.grinderwolf.swm.nms.SlimeChunkDecoder;
+import com.grinderwolf.swm.nms.WorldPalette;
+import com.grinderwolf.swm.nms.ZstdDictionaries;
 import com.grinderwolf.swm.plugin.config.ConfigManager;
 import com.grinderwolf.swm.plugin.config.DatasourcesConfig;
 import com.grinderwolf.swm.plugin.loader.file.FileLoader;
+import com.grinderwolf.swm.plugin.loader.file.WorldLayout;
 import com.grinderwolf.swm.plugin.loader.mongo.MongoLoader;
 import com.grinderwolf.swm.plugin.loader.mysql.MysqlLoader;
 import com.grinderwolf.swm.plugin.loader.redis.RedisLoader;
@@ -24,10 +30,14 @@ import com.grinderwolf.swm.plugin.logging.Logging;
 import com.mongodb.MongoException;
 import io.lettuce.core.RedisException;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Paths;
@@ -47,8 +57,9 @@ public class LoaderUtils {
         // File loader
         DatasourcesConfig.FileConfig fileConfig = config.getFileConfig();
         try {
-            registerLoader("file", new FileLoader(Paths.get(fileConfig.getPath())));
-        } catch (IOException ex) {
+            WorldLayout layout = WorldLayout.byKey(fileConfig.getLayout());
+            registerLoader("file", new FileLoader(Paths.get(fileConfig.getPath()), layout));
+        } catch (IOException | IllegalArgumentException ex) {
             Logging.error("Failed to initialize file loader in '%s'!".formatted(fileConfig.getPath()), ex);
         }
 
@@ -83,6 +94,21 @@ public class LoaderUtils {
         }
     }
 
+    /**
+     * Releases whatever the registered loaders hold on to, such as threads or watch services.
+     */
+    public static void closeLoaders() {
+        loaderMap.forEach((dataSource, loader) -> {
+            if (loader instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException ex) {
+                    Logging.error("Failed to close the loader of data source '%s'!".formatted(dataSource), ex);
+                }
+            }
+        });
+    }
+
     public static List<String> getAvailableLoadersNames() {
         return new LinkedList<>(loaderMap.keySet());
     }
@@ -113,7 +139,6 @@ public class LoaderUtils {
         loaderMap.put(dataSource, loader);
     }
 
-    @SuppressWarnings({"ResultOfMethodCallIgnored", "unchecked"})
     public static CraftSlimeWorld deserializeWorld(
             SlimeLoader loader,
             String worldName,
@@ -121,150 +146,77 @@ public class LoaderUtils {
             SlimePropertyMap propertyMap,
             boolean readOnly
     ) throws IOException, CorruptedWorldException, NewerFormatException {
-        try (DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(serializedWorld))) {
-            byte[] fileHeader = new byte[SlimeFormat.SLIME_HEADER.length];
-            dataStream.read(fileHeader);
-
-            if (!Arrays.equals(SlimeFormat.SLIME_HEADER, fileHeader))
-                throw new CorruptedWorldException(worldName);
-
-            // File version
-            byte version = dataStream.readByte();
-            if (version > SlimeFormat.SLIME_VERSION)
-                throw new NewerFormatException(version);
-
-            // World version
-            byte worldVersion;
-            if (version >= 6) {
-                worldVersion = dataStream.readByte();
-            } else if (version >= 4) { // In v4 there's just a boolean indicating whether the world is pre-1.13 or post-1.13
-                worldVersion = (byte) (dataStream.readBoolean() ? 0x04 : 0x01);
-            } else {
-                worldVersion = 0; // We'll try to automatically detect it later
-            }
-
-            // Chunk
-            short minX = dataStream.readShort();
-            short minZ = dataStream.readShort();
-            int width = dataStream.readShort();
-            int depth = dataStream.readShort();
+        return deserializeWorld(loader, worldName, new ByteArrayInputStream(serializedWorld), propertyMap, readOnly);
+    }
 
-            if (width <= 0 || depth <= 0)
-                throw new CorruptedWorldException(worldName);
+    public static CraftSlimeWorld deserializeWorld(
+            SlimeLoader loader,
+            String worldName,
+            InputStream worldStream,
+            SlimePropertyMap propertyMap,
+            boolean readOnly
+    ) throws IOException, CorruptedWorldException, NewerFormatException {
+        boolean lazy = propertyMap != null && propertyMap.getValue(SlimeProperties.LAZY_CHUNKS);
+
+        // Delta records extend the palette of the base world, so every chunk can share it
+        WorldPalette palette = new WorldPalette();
+
+        try (DataInputStream dataStream = new DataInputStream(new BufferedInputStream(worldStream))) {
+            SerializedWorld world = readWorld(worldName, dataStream, palette, lazy);
+            ChunkMap chunks = world.chunks();
+            CompoundTag extraCompound = world.extraCompound();
+            CompoundTag mapsCompound = world.mapsCompound();
+            byte worldVersion = world.worldVersion();
+
+            // Delta records, appended by incremental saves. They're streamed since v17,
+            // so they end with a trailer instead of being prefixed by their length.
+            if (world.version() >= 13) {
+                boolean streamedRecords = world.version() >= 17;
+
+                while (true) {
+                    List<Long> removedChunks = new ArrayList<>();
+                    SerializedWorld delta;
+
+                    try {
+                        if (streamedRecords) {
+                            if (isAtEnd(dataStream))
+                                break;
+
+                            delta = readDeltaRecord(worldName, dataStream, removedChunks, palette, lazy);
+                        } else {
+                            int recordLength = readRecordLength(dataStream);
+                            if (recordLength == -1)
+                                break;
+
+                            try (DataInputStream recordStream = new DataInputStream(new BlockInputStream(dataStream, recordLength))) {
+                                delta = readDeltaRecord(worldName, recordStream, removedChunks, palette, lazy);
+                                if (recordStream.read() != -1)
+                                    throw new CorruptedWorldException(worldName);
+                            }
+                        }
+                    } catch (EOFException ex) {
+                        // The save appending this record never finished. The world is fully
+                        // saved again the first time it's saved after being loaded, so
+                        // the leftovers don't get in the way of the following records.
+                        Logging.warn("Ignoring incomplete delta record of world '%s'.", worldName);
+                        break;
+                    }
 
-            int bitmaskSize = (int) Math.ceil((width * depth) / 8.0D);
-            byte[] chunkBitmask = new byte[bitmaskSize];
-            dataStream.read(chunkBitmask);
-            BitSet chunkBitset = BitSet.valueOf(chunkBitmask);
-
-            int compressedChunkDataLength = dataStream.readInt();
-            int chunkDataLength = dataStream.readInt();
-            byte[] compressedChunkData = new byte[compressedChunkDataLength];
-            byte[] chunkData = new byte[chunkDataLength];
-            dataStream.read(compressedChunkData);
-
-            // Tile Entities
-            int compressedTileEntitiesLength = dataStream.readInt();
-            int tileEntitiesLength = dataStream.readInt();
-            byte[] compressedTileEntities = new byte[compressedTileEntitiesLength];
-            byte[] tileEntities = new byte[tileEntitiesLength];
-            dataStream.read(compressedTileEntities);
-
-            // Entities
-            byte[] compressedEntities = new byte[0];
-            byte[] entities = new byte[0];
-
-            if (version >= 3) {
-                boolean hasEntities = dataStream.readBoolean();
-                if (hasEntities) {
-                    int compressedEntitiesLength = dataStream.readInt();
-                    int entitiesLength = dataStream.readInt();
-                    compressedEntities = new byte[compressedEntitiesLength];
-                    entities = new byte[entitiesLength];
-                    dataStream.read(compressedEntities);
+                    removedChunks.forEach(chunks::remove);
+                    chunks.putAll(delta.chunks());
+                    extraCompound = delta.extraCompound();
+                    mapsCompound = delta.mapsCompound();
                 }
-            }
-
-            // Extra NBT tag
-            byte[] compressedExtraTag = new byte[0];
-            byte[] extraTag = new byte[0];
-
-            if (version >= 2) {
-                int compressedExtraTagLength = dataStream.readInt();
-                int extraTagLength = dataStream.readInt();
-                compressedExtraTag = new byte[compressedExtraTagLength];
-                extraTag = new byte[extraTagLength];
-                dataStream.read(compressedExtraTag);
-            }
-
-            // World Map NBT tag
-            byte[] compressedMapsTag = new byte[0];
-            byte[] mapsTag = new byte[0];
-
-            if (version >= 7) {
-                int compressedMapsTagLength = dataStream.readInt();
-                int mapsTagLength = dataStream.readInt();
-                compressedMapsTag = new byte[compressedMapsTagLength];
-                mapsTag = new byte[mapsTagLength];
-                dataStream.read(compressedMapsTag);
-            }
-
-            if (dataStream.read() != -1)
+            } else if (dataStream.read() != -1) {
                 throw new CorruptedWorldException(worldName);
-
-            // Data decompression
-            Zstd.decompress(chunkData, compressedChunkData);
-            Zstd.decompress(tileEntities, compressedTileEntities);
-            Zstd.decompress(entities, compressedEntities);
-            Zstd.decompress(extraTag, compressedExtraTag);
-            Zstd.decompress(mapsTag, compressedMapsTag);
-
-            // Chunk deserialization
-            Map<Long, SlimeChunk> chunks = readChunks(worldVersion, version, worldName, minX, minZ, width, depth, chunkBitset, chunkData);
-
-            // Entity deserialization
-            CompoundTag entitiesCompound = readCompoundTag(entities);
-            if (entitiesCompound != null) {
-                ListTag<CompoundTag> entitiesList = (ListTag<CompoundTag>) entitiesCompound.getValue().get("entities");
-                for (CompoundTag entityCompound : entitiesList.getValue()) {
-                    ListTag<DoubleTag> listTag = (ListTag<DoubleTag>) entityCompound.getAsListTag("Pos").orElseThrow();
-
-                    int chunkX = floor(listTag.getValue().get(0).getValue()) >> 4;
-                    int chunkZ = floor(listTag.getValue().get(2).getValue()) >> 4;
-                    long chunkKey = ((long) chunkZ) * Integer.MAX_VALUE + ((long) chunkX);
-
-                    SlimeChunk chunk = chunks.get(chunkKey);
-                    if (chunk == null)
-                        throw new CorruptedWorldException(worldName);
-
-                    chunk.getEntities().add(entityCompound);
-                }
-            }
-
-            // Tile Entity deserialization
-            CompoundTag tileEntitiesCompound = readCompoundTag(tileEntities);
-            if (tileEntitiesCompound != null) {
-                ListTag<CompoundTag> tileEntitiesList = (ListTag<CompoundTag>) tileEntitiesCompound.getValue().get("tiles");
-                for (CompoundTag tileEntityCompound : tileEntitiesList.getValue()) {
-                    int chunkX = ((IntTag) tileEntityCompound.getValue().get("x")).getValue() >> 4;
-                    int chunkZ = ((IntTag) tileEntityCompound.getValue().get("z")).getValue() >> 4;
-                    long chunkKey = ((long) chunkZ) * Integer.MAX_VALUE + ((long) chunkX);
-
-                    SlimeChunk chunk = chunks.get(chunkKey);
-                    if (chunk == null)
-                        throw new CorruptedWorldException(worldName);
-
-                    chunk.getTileEntities().add(tileEntityCompound);
-                }
             }
 
             // Extra Data
-            CompoundTag extraCompound = readCompoundTag(extraTag);
             if (extraCompound == null)
                 extraCompound = new CompoundTag("", new CompoundMap());
 
             // World Maps
-            CompoundTag mapsCompound = readCompoundTag(mapsTag);
+            @SuppressWarnings("unchecked")
             List<CompoundTag> mapList = mapsCompound != null
                     ? (List<CompoundTag>) mapsCompound.getAsListTag("maps").map(ListTag::getValue).orElse(new ArrayList<>())
                     : new ArrayList<>();
@@ -295,86 +247,369 @@ public class LoaderUtils {
                 worldPropertyMap = new SlimePropertyMap();
             }
 
-            return new CraftSlimeWorld(loader, worldName, chunks, extraCompound, mapList, worldVersion, worldPropertyMap, readOnly, !readOnly);
+            return new CraftSlimeWorld(loader, worldName, chunks, extraCompound, mapList, palette, worldVersion, worldPropertyMap, readOnly, !readOnly);
         } catch (EOFException ex) {
             throw new CorruptedWorldException(worldName, ex);
         }
     }
 
+    private static SerializedWorld readDeltaRecord(
+            String worldName,
+            DataInputStream recordStream,
+            List<Long> removedChunks,
+            WorldPalette palette,
+            boolean lazy
+    ) throws IOException, CorruptedWorldException, NewerFormatException {
+        int removedCount = recordStream.readInt();
+        for (int i = 0; i < removedCount; i++) {
+            int chunkX = recordStream.readInt();
+            int chunkZ = recordStream.readInt();
+            removedChunks.add(ChunkMap.key(chunkX, chunkZ));
+        }
+
+        return readWorld(worldName, recordStream, palette, lazy);
+    }
+
+    /**
+     * Reads a whole world, either the base snapshot or the one embedded in a delta record.
+     */
+    @SuppressWarnings("unchecked")
+    private static SerializedWorld readWorld(
+            String worldName,
+            DataInputStream dataStream,
+            WorldPalette palette,
+            boolean lazy
+    ) throws IOException, CorruptedWorldException, NewerFormatException {
+        byte[] fileHeader = new byte[SlimeFormat.SLIME_HEADER.length];
+        dataStream.readFully(fileHeader);
+
+        if (!Arrays.equals(SlimeFormat.SLIME_HEADER, fileHeader))
+            throw new CorruptedWorldException(worldName);
+
+        // File version
+        byte version = dataStream.readByte();
+        if (version > SlimeFormat.SLIME_VERSION)
+            throw new NewerFormatException(version);
+
+        // World version
+        byte worldVersion;
+        if (version >= 6) {
+            worldVersion = dataStream.readByte();
+        } else if (version >= 4) { // In v4 there's just a boolean indicating whether the world is pre-1.13 or post-1.13
+            worldVersion = (byte) (dataStream.readBoolean() ? 0x04 : 0x01);
+        } else {
+            worldVersion = 0; // We'll try to automatically detect it later
+        }
+
+        // Compression dictionary
+        int dictionaryId = version >= 11 ? dataStream.readInt() : ZstdDictionaries.NO_DICTIONARY;
+        ZstdDictDecompress dictionary = ZstdDictionaries.getDecompressDictionary(dictionaryId);
+
+        // Chunk
+        short minX = dataStream.readShort();
+        short minZ = dataStream.readShort();
+        int width = dataStream.readShort();
+        int depth = dataStream.readShort();
+
+        if (width <= 0 || depth <= 0)
+            throw new CorruptedWorldException(worldName);
+
+        int bitmaskSize = (int) Math.ceil((width * depth) / 8.0D);
+        byte[] chunkBitmask = new byte[bitmaskSize];
+        dataStream.readFully(chunkBitmask);
+        BitSet chunkBitset = BitSet.valueOf(chunkBitmask);
+
+        ChunkMap chunks;
+        int trailerOffset = -1;
+
+        if (version >= 17) {
+            // Chunk frames come first, the index and the palette they refer to are part of the trailer
+            int headerLength = fileHeader.length + 2 + 4 + 8 + bitmaskSize; // Versions, dictionary, coordinates and size, bitmask
+            byte[][] frames = readStreamedFrames(worldName, dataStream, chunkBitset.cardinality());
+            int[] frameOffsets = new int[frames.length];
+
+            int offset = headerLength;
+            for (int i = 0; i < frames.length; i++) {
+                frameOffsets[i] = offset + 4; // Past the length of the frame
+                offset = frameOffsets[i] + frames[i].length;
+            }
+
+            trailerOffset = offset;
+            ChunkIndex chunkIndex = readChunkIndex(worldName, version, dataStream, frames.length);
+
+            for (int i = 0; i < frames.length; i++) {
+                if (chunkIndex.offsets()[i] != frameOffsets[i] || chunkIndex.lengths()[i] != frames[i].length)
+                    throw new CorruptedWorldException(worldName);
+            }
+
+            readPalette(worldName, version, worldVersion, dataStream, palette, dictionary);
+            chunks = readChunkFrames(worldVersion, version, palette, worldName, minX, minZ, width, depth, chunkBitset, chunkIndex, index -> frames[index], dictionaryId, dictionary, lazy);
+        } else if (version >= 10) {
+            readPalette(worldName, version, worldVersion, dataStream, palette, dictionary);
+            ChunkIndex chunkIndex = readChunkIndex(worldName, version, dataStream, chunkBitset.cardinality());
+
+            // Frames are stored back to back, in the same order as the index
+            int nextOffset = 0;
+            for (int i = 0; i < chunkIndex.offsets().length; i++) {
+                if (chunkIndex.offsets()[i] != nextOffset)
+                    throw new CorruptedWorldException(worldName);
+
+                nextOffset += chunkIndex.lengths()[i];
+            }
+
+            // Chunks are parsed while they're being decompressed
+            chunks = readChunkFrames(worldVersion, version, palette, worldName, minX, minZ, width, depth, chunkBitset, chunkIndex, index -> {
+                byte[] frame = new byte[chunkIndex.lengths()[index]];
+                dataStream.readFully(frame);
+                return frame;
+            }, dictionaryId, dictionary, lazy);
+        } else {
+            ByteBuffer chunkBuffer = ByteBuffer.wrap(readCompressedBlock(dataStream, dictionary));
+            chunks = readChunks(worldVersion, version, palette, worldName, minX, minZ, width, depth, chunkBitset, chunkBuffer);
+        }
+
+        // Tile Entities and Entities, stored along with their chunks since v15
+        CompoundTag tileEntitiesCompound = null;
+        CompoundTag entitiesCompound = null;
+
+        if (version < 15) {
+            tileEntitiesCompound = readCompressedCompoundTag(dataStream, version, dictionary);
+
+            if (version >= 3 && dataStream.readBoolean())
+                entitiesCompound = readCompressedCompoundTag(dataStream, version, dictionary);
+        }
+
+        // Extra NBT tag
+        CompoundTag extraCompound = version >= 2 ? readCompressedCompoundTag(dataStream, version, dictionary) : null;
+
+        // World Map NBT tag
+        CompoundTag mapsCompound = version >= 7 ? readCompressedCompoundTag(dataStream, version, dictionary) : null;
+
+        // Trailer pointer, which must point back to the chunk index
+        if (version >= 17 && dataStream.readLong() != trailerOffset)
+            throw new CorruptedWorldException(worldName);
+
+        // Lazy chunks have to know how their frames were encoded, so they aren't reused once the light storage changes
+        if (lazy) {
+            LightStorage lightStorage = getStoredLightStorage(extraCompound);
+
+            if (lightStorage != LightStorage.FULL) {
+                for (Map.Entry<Long, SlimeChunk> entry : List.copyOf(chunks.entrySet())) {
+                    if (entry.getValue() instanceof LazySlimeChunk lazyChunk)
+                        chunks.put(entry.getKey().longValue(), lazyChunk.withLightStorage(lightStorage));
+                }
+            }
+        }
+
+        // Entity deserialization
+        if (entitiesCompound != null) {
+            ListTag<CompoundTag> entitiesList = (ListTag<CompoundTag>) entitiesCompound.getValue().get("entities");
+            for (CompoundTag entityCompound : entitiesList.getValue()) {
+                ListTag<DoubleTag> listTag = (ListTag<DoubleTag>) entityCompound.getAsListTag("Pos").orElseThrow();
+
+                int chunkX = floor(listTag.getValue().get(0).getValue()) >> 4;
+                int chunkZ = floor(listTag.getValue().get(2).getValue()) >> 4;
+                long chunkKey = ChunkMap.key(chunkX, chunkZ);
+
+                SlimeChunk chunk = chunks.get(chunkKey);
+                if (chunk == null)
+                    throw new CorruptedWorldException(worldName);
+
+                chunk.getEntities().add(entityCompound);
+            }
+        }
+
+        // Tile Entity deserialization
+        if (tileEntitiesCompound != null) {
+            ListTag<CompoundTag> tileEntitiesList = (ListTag<CompoundTag>) tileEntitiesCompound.getValue().get("tiles");
+            for (CompoundTag tileEntityCompound : tileEntitiesList.getValue()) {
+                int chunkX = ((IntTag) tileEntityCompound.getValue().get("x")).getValue() >> 4;
+                int chunkZ = ((IntTag) tileEntityCompound.getValue().get("z")).getValue() >> 4;
+                long chunkKey = ChunkMap.key(chunkX, chunkZ);
+
+                SlimeChunk chunk = chunks.get(chunkKey);
+                if (chunk == null)
+                    throw new CorruptedWorldException(worldName);
+
+                chunk.getTileEntities().add(tileEntityCompound);
+            }
+        }
+
+        return new SerializedWorld(version, worldVersion, chunks, extraCompound, mapsCompound);
+    }
+
+    private static LightStorage getStoredLightStorage(CompoundTag extraCompound) {
+        Optional<CompoundMap> propertiesMap = extraCompound != null
+                ? extraCompound.getAsCompoundTag("properties").map(CompoundTag::getValue)
+                : Optional.empty();
+
+        // Worlds saved before light storage could be changed always stored the full light
+        return propertiesMap.map(properties -> LightStorage.fromProperties(new SlimePropertyMap(properties)))
+                .orElse(LightStorage.FULL);
+    }
+
+    /**
+     * World palette, every block state gets parsed just once.
+     */
+    @SuppressWarnings("unchecked")
+    private static void readPalette(
+            String worldName,
+            int version,
+            byte worldVersion,
+            DataInputStream dataStream,
+            WorldPalette palette,
+            ZstdDictDecompress dictionary
+    ) throws IOException, CorruptedWorldException {
+        if (version < 14 || worldVersion < 0x04)
+            return;
+
+        CompoundTag paletteCompound = readCompressedCompoundTag(dataStream, version, dictionary);
+        List<CompoundTag> paletteList = paletteCompound != null
+                ? (List<CompoundTag>) paletteCompound.getAsListTag("palette").map(ListTag::getValue).orElse(new ArrayList<>())
+                : new ArrayList<>();
+
+        if (!palette.extend(paletteList))
+            throw new CorruptedWorldException(worldName);
+    }
+
+    private static boolean isAtEnd(DataInputStream dataStream) throws IOException {
+        dataStream.mark(1);
+        if (dataStream.read() == -1)
+            return true;
+
+        dataStream.reset();
+        return false;
+    }
+
+    private static int readRecordLength(DataInputStream dataStream) throws IOException {
+        int firstByte = dataStream.read();
+        if (firstByte == -1)
+            return -1;
+
+        return (firstByte << 24) | (dataStream.readUnsignedByte() << 16) | (dataStream.readUnsignedByte() << 8) | dataStream.readUnsignedByte();
+    }
+
     private static int floor(double num) {
         final int floor = (int) num;
         return floor == num ? floor : floor - (int) (Double.doubleToRawLongBits(num) >>> 63);
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    private static Map<Long, SlimeChunk> readChunks(
+    private static ChunkMap readChunks(
             byte worldVersion,
             int version,
+            WorldPalette palette,
             String worldName,
             int minX,
             int minZ,
             int width,
             int depth,
             BitSet chunkBitset,
-            byte[] chunkData
+            ByteBuffer chunkBuffer
     ) throws IOException {
-        DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(chunkData));
-        Map<Long, SlimeChunk> chunkMap = new HashMap<>();
+        ChunkMap chunkMap = new ChunkMap();
 
         for (int z = 0; z < depth; z++) {
             for (int x = 0; x < width; x++) {
                 int bitsetIndex = z * width + x;
 
                 if (chunkBitset.get(bitsetIndex)) {
-                    // Height Maps
-                    CompoundTag heightMaps;
-
-                    if (worldVersion >= 0x04) {
-                        int heightMapsLength = dataStream.readInt();
-                        byte[] heightMapsArray = new byte[heightMapsLength];
-                        dataStream.read(heightMapsArray);
-                        heightMaps = readCompoundTag(heightMapsArray);
-
-                        // Height Maps might be null if empty
-                        if (heightMaps == null) {
-                            heightMaps = new CompoundTag("", new CompoundMap());
-                        }
-                    } else {
-                        int[] heightMap = new int[256];
-                        for (int i = 0; i < 256; i++)
-                            heightMap[i] = dataStream.readInt();
-
-                        CompoundMap map = new CompoundMap();
-                        map.put("heightMap", new IntArrayTag("heightMap", heightMap));
-                        heightMaps = new CompoundTag("", map);
-                    }
+                    chunkMap.put(
+                            ChunkMap.key(minX + x, minZ + z),
+                            SlimeChunkDecoder.readChunk(chunkBuffer, worldVersion, version, palette, worldName, minX + x, minZ + z, new ArrayList<>(), new ArrayList<>())
+                    );
+                }
+            }
+        }
 
-                    // Biome array
-                    int[] biomes;
+        return chunkMap;
+    }
 
-                    if (version == 8 && worldVersion < 0x04)
-                        // Patch the v8 bug: biome array size is wrong for old worlds
-                        dataStream.readInt();
+    /**
+     * Reads the chunk frames written since v17, each one prefixed by its length.
+     */
+    private static byte[][] readStreamedFrames(String worldName, DataInputStream dataStream, int frameCount) throws IOException, CorruptedWorldException {
+        byte[][] frames = new byte[frameCount][];
 
-                    if (worldVersion >= 0x04) {
-                        int biomesArrayLength = version >= 8 ? dataStream.readInt() : 256;
-                        biomes = new int[biomesArrayLength];
+        for (int i = 0; i < frameCount; i++) {
+            int length = dataStream.readInt();
+            if (length < 0)
+                throw new CorruptedWorldException(worldName);
 
-                        for (int i = 0; i < biomes.length; i++) {
-                            biomes[i] = dataStream.readInt();
-                        }
-                    } else {
-                        byte[] byteBiomes = new byte[256];
-                        dataStream.read(byteBiomes);
-                        biomes = toIntArray(byteBiomes);
+            frames[i] = new byte[length];
+            dataStream.readFully(frames[i]);
+        }
+
+        return frames;
+    }
+
+    private static ChunkIndex readChunkIndex(
+            String worldName,
+            int version,
+            DataInputStream dataStream,
+            int frameCount
+    ) throws IOException, CorruptedWorldException {
+        if (dataStream.readInt() != frameCount)
+            throw new CorruptedWorldException(worldName);
+
+        CompressionCodec[] codecs = new CompressionCodec[frameCount];
+        int[] offsets = new int[frameCount];
+        int[] lengths = new int[frameCount];
+        int[] uncompressedLengths = new int[frameCount];
+
+        for (int i = 0; i < frameCount; i++) {
+            codecs[i] = version >= 12 ? CompressionCodec.byId(dataStream.readUnsignedByte()) : CompressionCodec.ZSTD;
+            offsets[i] = dataStream.readInt();
+            lengths[i] = dataStream.readInt();
+            uncompressedLengths[i] = dataStream.readInt();
+
+            if (lengths[i] < 0)
+                throw new CorruptedWorldException(worldName);
+        }
+
+        return new ChunkIndex(codecs, offsets, lengths, uncompressedLengths);
+    }
+
+    private static ChunkMap readChunkFrames(
+            byte worldVersion,
+            int version,
+            WorldPalette palette,
+            String worldName,
+            int minX,
+            int minZ,
+            int width,
+            int depth,
+            BitSet chunkBitset,
+            ChunkIndex chunkIndex,
+            FrameReader frameReader,
+            int dictionaryId,
+            ZstdDictDecompress dictionary,
+            boolean lazy
+    ) throws IOException, CorruptedWorldException {
+        ChunkMap chunkMap = new ChunkMap();
+        int frameIndex = 0;
+
+        for (int z = 0; z < depth; z++) {
+            for (int x = 0; x < width; x++) {
+                int bitsetIndex = z * width + x;
+
+                if (chunkBitset.get(bitsetIndex)) {
+                    long chunkKey = ChunkMap.key(minX + x, minZ + z);
+                    CompressionCodec codec = chunkIndex.codecs()[frameIndex];
+                    int uncompressedLength = chunkIndex.uncompressedLengths()[frameIndex];
+                    byte[] frame = frameReader.read(frameIndex++);
+
+                    if (lazy) { // Keep the frame around, it'll be decoded once the chunk is requested
+                        chunkMap.put(chunkKey, new LazySlimeChunk(
+                                worldName, minX + x, minZ + z, codec, frame, uncompressedLength, worldVersion, (byte) version, dictionaryId, palette,
+                                LightStorage.FULL // Replaced once the properties of the world have been read
+                        ));
+                        continue;
                     }
 
-                    // Chunk Sections
-                    SlimeChunkSection[] sections = readChunkSections(dataStream, worldVersion, version);
-                    chunkMap.put(
-                            ((long) minZ + z) * Integer.MAX_VALUE + ((long) minX + x),
-                            new CraftSlimeChunk(worldName,minX + x, minZ + z, sections, heightMaps, biomes, new ArrayList<>(), new ArrayList<>())
-                    );
+                    chunkMap.put(chunkKey, SlimeChunkDecoder.decodeFrame(
+                            codec, frame, uncompressedLength, dictionary, worldVersion, version, palette,
+                            worldName, minX + x, minZ + z, new ArrayList<>(), new ArrayList<>()
+                    ));
                 }
             }
         }
@@ -382,114 +617,126 @@ public class LoaderUtils {
         return chunkMap;
     }
 
-    private static int[] toIntArray(byte[] buf) {
-        ByteBuffer buffer = ByteBuffer.wrap(buf).order(ByteOrder.BIG_ENDIAN);
-        int[] ret = new int[buf.length / 4];
-        buffer.asIntBuffer().get(ret);
-        return ret;
+    private static byte[] readCompressedBlock(DataInputStream dataStream, ZstdDictDecompress dictionary) throws IOException {
+        int compressedLength = dataStream.readInt();
+        int uncompressedLength = dataStream.readInt();
+
+        byte[] compressedBlock = new byte[compressedLength];
+        dataStream.readFully(compressedBlock);
+
+        return CompressionCodec.ZSTD.decompress(compressedBlock, uncompressedLength, dictionary);
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    private static SlimeChunkSection[] readChunkSections(
-            DataInputStream dataStream, byte worldVersion, int version
-    ) throws IOException {
-        SlimeChunkSection[] chunkSectionArray = new SlimeChunkSection[16];
-        byte[] sectionBitmask = new byte[2];
-        dataStream.read(sectionBitmask);
-        BitSet sectionBitset = BitSet.valueOf(sectionBitmask);
-
-        for (int i = 0; i < 16; i++) {
-            if (sectionBitset.get(i)) {
-                // Block Light Nibble Array
-                NibbleArray blockLightArray;
-
-                if (version < 5 || dataStream.readBoolean()) {
-                    byte[] blockLightByteArray = new byte[2048];
-                    dataStream.read(blockLightByteArray);
-                    blockLightArray = new NibbleArray((blockLightByteArray));
-                } else {
-                    blockLightArray = null;
-                }
+    private static CompoundTag readCompressedCompoundTag(DataInputStream dataStream, int version, ZstdDictDecompress dictionary) throws IOException {
+        CompressionCodec codec = version >= 12 ? CompressionCodec.byId(dataStream.readUnsignedByte()) : CompressionCodec.ZSTD;
+        int compressedLength = dataStream.readInt();
+        int length = dataStream.readInt();
 
-                // Block data
-                byte[] blockArray;
-                NibbleArray dataArray;
+        if (length == 0) {
+            dataStream.skipNBytes(compressedLength);
+            return null;
+        }
 
-                ListTag<CompoundTag> paletteTag;
-                long[] blockStatesArray;
+        try (NBTInputStream stream = new NBTInputStream(
+                codec.decompressStream(new BlockInputStream(dataStream, compressedLength), dictionary),
+                NBTInputStream.NO_COMPRESSION,
+                ByteOrder.BIG_ENDIAN
+        )) {
+            return (CompoundTag) stream.readTag();
+        }
+    }
 
-                // Post 1.13 block format
-                if (worldVersion >= 0x04) {
-                    // Palette
-                    int paletteLength = dataStream.readInt();
-                    List<CompoundTag> paletteList = new ArrayList<>(paletteLength);
+    private record ChunkIndex(
+            CompressionCodec[] codecs,
+            int[] offsets,
+            int[] lengths,
+            int[] uncompressedLengths
+    ) {
 
-                    for (int index = 0; index < paletteLength; index++) {
-                        int tagLength = dataStream.readInt();
-                        byte[] serializedTag = new byte[tagLength];
-                        dataStream.read(serializedTag);
-                        paletteList.add(readCompoundTag(serializedTag));
-                    }
+    }
 
-                    paletteTag = new ListTag<>("", TagType.TAG_COMPOUND, paletteList);
+    @FunctionalInterface
+    private interface FrameReader {
 
-                    // Block states
-                    int blockStatesArrayLength = dataStream.readInt();
-                    blockStatesArray = new long[blockStatesArrayLength];
+        byte[] read(int frameIndex) throws IOException;
 
-                    for (int index = 0; index < blockStatesArrayLength; index++)
-                        blockStatesArray[index] = dataStream.readLong();
+    }
 
-                    blockArray = null;
-                    dataArray = null;
-                } else {
-                    blockArray = new byte[4096];
-                    dataStream.read(blockArray);
+    private record SerializedWorld(
+            byte version,
+            byte worldVersion,
+            ChunkMap chunks,
+            CompoundTag extraCompound,
+            CompoundTag mapsCompound
+    ) {
 
-                    // Block Data Nibble Array
-                    byte[] dataByteArray = new byte[2048];
-                    dataStream.read(dataByteArray);
-                    dataArray = new NibbleArray((dataByteArray));
+    }
 
-                    paletteTag = null;
-                    blockStatesArray = null;
-                }
+    /**
+     * Exposes a single compressed block of a world file. Closing
+     * this stream skips whatever is left of the block, but
+     * leaves the underlying world stream open.
+     */
+    private static final class BlockInputStream extends FilterInputStream {
 
-                // Sky Light Nibble Array
-                NibbleArray skyLightArray;
+        private long remaining;
 
-                if (version < 5 || dataStream.readBoolean()) {
-                    byte[] skyLightByteArray = new byte[2048];
-                    dataStream.read(skyLightByteArray);
-                    skyLightArray = new NibbleArray((skyLightByteArray));
-                } else {
-                    skyLightArray = null;
-                }
+        private BlockInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
 
-                // HypixelBlocks 3
-                if (version < 4) {
-                    short hypixelBlocksLength = dataStream.readShort();
-                    dataStream.skip(hypixelBlocksLength);
-                }
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
 
-                chunkSectionArray[i] = new CraftSlimeChunkSection(blockArray, dataArray, paletteTag, blockStatesArray, blockLightArray, skyLightArray);
-            }
+            int result = in.read();
+            if (result == -1)
+                throw new EOFException();
+
+            remaining--;
+            return result;
         }
 
-        return chunkSectionArray;
-    }
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0)
+                return -1;
 
-    private static CompoundTag readCompoundTag(byte[] serializedCompound) throws IOException {
-        if (serializedCompound.length == 0)
-            return null;
+            int result = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (result == -1)
+                throw new EOFException();
 
-        NBTInputStream stream = new NBTInputStream(
-                new ByteArrayInputStream(serializedCompound),
-                NBTInputStream.NO_COMPRESSION,
-                ByteOrder.BIG_ENDIAN
-        );
+            remaining -= result;
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = in.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (remaining > 0) {
+                in.skipNBytes(remaining);
+                remaining = 0;
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
 
-        return (CompoundTag) stream.readTag();
     }
 
 }
@@ -1,34 +1,60 @@
 package com.grinderwolf.swm.plugin.loader.file;
 
+import com.google.common.util.concurrent.Striped;
 import com.grinderwolf.swm.api.exception.UnknownWorldException;
 import com.grinderwolf.swm.api.loader.SlimeLoader;
+import com.grinderwolf.swm.api.loader.WorldDataWriter;
 import com.grinderwolf.swm.plugin.logging.Logging;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
-import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Stream;
 
-public class FileLoader implements SlimeLoader {
+public class FileLoader implements SlimeLoader, Closeable {
 
     private static final FilenameFilter WORLD_FILE_FILTER = (dir, name) -> name.endsWith(".slime");
+    private static final String TEMP_FILE_SUFFIX = ".slime.tmp";
+    private static final long STALE_TEMP_FILE_AGE = TimeUnit.HOURS.toMillis(1);
+    // Windows refuses to replace a file while it is mapped, or held open without sharing its deletion like RandomAccessFile holds it
+    private static final boolean REPLACES_OPEN_FILES = !System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("windows");
 
     private final Map<String, RandomAccessFile> worldFiles = Collections.synchronizedMap(new HashMap<>());
+    private final Set<String> lockedWorlds = ConcurrentHashMap.newKeySet(); // Worlds whose open handle holds a file lock
+    private final Striped<Lock> worldLocks = Striped.lock(64); // Keeps a world from being moved while it's written
     private final Path worldDir;
+    private final WorldLayout layout;
+    private final WorldIndex worldIndex;
 
-    public FileLoader(Path worldDir) throws IOException {
+    public FileLoader(Path worldDir, WorldLayout layout) throws IOException {
         this.worldDir = worldDir;
+        this.layout = layout;
 
         if (Files.isRegularFile(worldDir) && Files.deleteIfExists(worldDir))
             Logging.warn("A file named '%s' has been deleted, as this is the name used for the worlds directory.", worldDir);
@@ -36,16 +62,88 @@ public class FileLoader implements SlimeLoader {
         if (!Files.isDirectory(worldDir)) {
             Files.createDirectories(worldDir);
         }
+
+        deleteStaleTempFiles();
+        this.worldIndex = new WorldIndex(worldDir, layout);
+    }
+
+    /**
+     * Deletes the temp files left behind by saves interrupted by a crash. Recent
+     * ones are kept, as they may belong to another server sharing the directory.
+     */
+    private void deleteStaleTempFiles() throws IOException {
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_FILE_AGE;
+
+        try (Stream<Path> stream = Files.list(worldDir)) {
+            for (Path file : (Iterable<Path>) stream::iterator) {
+                if (!file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX))
+                    continue;
+
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < staleBefore)
+                        Files.deleteIfExists(file);
+                } catch (IOException ex) {
+                    Logging.warn("Failed to delete temp file '%s': %s", file, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a new file to write a world to before it replaces the current one. Every
+     * save gets its own file, so concurrent saves of a world don't write over each other.
+     */
+    private Path newTempFile(String worldName) {
+        return worldDir.resolve(worldName + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
     }
 
     @Override
     public byte[] loadWorld(String worldName, boolean readOnly) throws UnknownWorldException, IOException {
+        RandomAccessFile file = openWorldFile(worldName, readOnly);
+        if (file == null)
+            return new byte[0];
+
+        if (!REPLACES_OPEN_FILES)
+            return Files.readAllBytes(worldIndex.getFile(worldName));
+
+        ByteBuffer buffer = mapWorldFile(file);
+        byte[] serializedWorld = new byte[buffer.remaining()];
+        buffer.get(serializedWorld);
+        return serializedWorld;
+    }
+
+    @Override
+    public InputStream openWorldStream(String worldName, boolean readOnly) throws UnknownWorldException, IOException {
+        RandomAccessFile file = openWorldFile(worldName, readOnly);
+        if (file == null)
+            return InputStream.nullInputStream();
+
+        // Mapped files can't be replaced until the mapping gets garbage collected, so they're read
+        // through a channel of their own, which is opened sharing its deletion so it doesn't get in the way
+        if (!REPLACES_OPEN_FILES)
+            return new BufferedInputStream(Files.newInputStream(worldIndex.getFile(worldName)));
+
+        // Reads go straight to the page cache, and don't move the position of the shared channel
+        return new ByteBufferInputStream(mapWorldFile(file));
+    }
+
+    private ByteBuffer mapWorldFile(RandomAccessFile file) throws IOException {
+        FileChannel channel = file.getChannel();
+        long size = channel.size();
+
+        if (size > Integer.MAX_VALUE)
+            throw new IndexOutOfBoundsException("World is too big!");
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    private RandomAccessFile openWorldFile(String worldName, boolean readOnly) throws UnknownWorldException {
         if (!worldExists(worldName))
             throw new UnknownWorldException(worldName);
 
         RandomAccessFile file = worldFiles.computeIfAbsent(worldName, (world) -> {
             try {
-                return new RandomAccessFile(worldDir.resolve(worldName + ".slime").toFile(), "rw");
+                return new RandomAccessFile(worldIndex.getFile(worldName).toFile(), "rw");
             } catch (FileNotFoundException ex) {
                 return null; // This is never going to happen as we've just checked if the world exists
             }
@@ -54,60 +152,185 @@ public class FileLoader implements SlimeLoader {
         if (!readOnly && file != null && file.getChannel().isOpen())
             Logging.info("World is unlocked.");
 
-        if (file != null && file.length() > Integer.MAX_VALUE)
-            throw new IndexOutOfBoundsException("World is too big!");
-
-        byte[] serializedWorld = new byte[0];
-        if (file != null) {
-            serializedWorld = new byte[(int) file.length()];
-            file.seek(0); // Make sure we're at the start of the file
-            file.readFully(serializedWorld);
-        }
-
-        return serializedWorld;
+        return file;
     }
 
     @Override
     public boolean worldExists(String worldName) {
-        return Files.exists(worldDir.resolve(worldName + ".slime"));
+        return worldIndex.contains(worldName);
     }
 
     @Override
-    public List<String> listWorlds() throws IOException {
-        if (!Files.isDirectory(worldDir))
-            throw new NotDirectoryException(worldDir.toAbsolutePath().toString());
+    public String getContentVersion(String worldName) throws UnknownWorldException {
+        WorldIndex.WorldEntry entry = worldIndex.get(worldName);
+        if (entry == null)
+            throw new UnknownWorldException(worldName);
 
-        try (Stream<Path> stream = Files.list(worldDir)) {
-            return stream.map(Path::getFileName).map(Path::toString)
-                    .filter(name -> name.toLowerCase().endsWith(".slime"))
-                    .map(name -> name.substring(0, name.length() - 6))
-                    .toList();
-        }
+        // Saves rewrite the file and delta records grow it, so either of them is enough to tell a change
+        return entry.lastModified() + ":" + entry.size();
+    }
+
+    @Override
+    public List<String> listWorlds() {
+        return worldIndex.getWorldNames();
     }
 
     @Override
     public void saveWorld(String worldName, byte[] serializedWorld, boolean lock) throws IOException {
-        RandomAccessFile worldFile = worldFiles.get(worldName);
-        boolean tempFile = worldFile == null;
+        saveWorld(worldName, stream -> stream.write(serializedWorld), lock);
+    }
+
+    @Override
+    public void saveWorld(String worldName, WorldDataWriter writer, boolean lock) throws IOException {
+        Path tempFile = newTempFile(worldName);
 
-        if (tempFile)
-            worldFile = new RandomAccessFile(worldDir.resolve(worldName + ".slime").toFile(), "rw");
+        // The world is written aside, so a crash mid-save leaves the previous data untouched
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel));
+            writer.writeTo(stream);
+            stream.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
 
-        worldFile.seek(0); // Make sure we're at the start of the file
-        worldFile.setLength(0); // Delete old data
-        worldFile.write(serializedWorld);
+        replaceWorldFile(worldName, tempFile, lock);
+    }
+
+    private void replaceWorldFile(String worldName, Path tempFile, boolean lock) throws IOException {
+        Lock worldLock = worldLocks.get(worldName);
+        worldLock.lock();
+
+        try {
+            Path worldFile = worldIndex.getFile(worldName);
+            Files.createDirectories(worldFile.getParent());
+
+            RandomAccessFile oldFile = worldFiles.get(worldName);
+            boolean relock = lock || lockedWorlds.contains(worldName);
+
+            // The handle is closed around the move where open files can't be replaced, which
+            // releases its lock until the new file is locked again
+            if (oldFile != null && !REPLACES_OPEN_FILES)
+                oldFile.close();
 
-        if (lock) {
-            FileChannel channel = worldFile.getChannel();
             try {
-                //noinspection ResultOfMethodCallIgnored
-                channel.tryLock();
-            } catch (OverlappingFileLockException ignored) {
+                Files.move(tempFile, worldFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException ex) {
+                // The previous file is still in place, but its handle has to be opened again
+                if (oldFile != null && !REPLACES_OPEN_FILES) {
+                    try {
+                        reopenWorldFile(worldName, worldFile, oldFile, relock);
+                    } catch (IOException reopenEx) {
+                        ex.addSuppressed(reopenEx);
+                    }
+                }
+
+                throw ex;
             }
+
+            worldIndex.refresh(worldName);
+
+            // An open handle still points to the replaced file, or has been closed, so it has to be reopened
+            if (oldFile != null)
+                reopenWorldFile(worldName, worldFile, oldFile, relock);
+
+            syncDirectory(worldFile.getParent());
+        } finally {
+            worldLock.unlock();
+        }
+    }
+
+    private void reopenWorldFile(String worldName, Path worldFile, RandomAccessFile oldFile, boolean relock) throws IOException {
+        RandomAccessFile newFile = null;
+        boolean locked;
+
+        try {
+            // Closing the old handle releases its lock, so the new file is locked first
+            newFile = new RandomAccessFile(worldFile.toFile(), "rw");
+            locked = relock && tryLock(newFile);
+        } catch (IOException ex) {
+            if (newFile != null)
+                newFile.close();
+
+            // The old handle is of no use anymore, as it either got closed or points to the replaced file
+            worldFiles.remove(worldName, oldFile);
+            lockedWorlds.remove(worldName);
+            oldFile.close();
+            throw new IOException("World '%s' has been saved, but could not be opened and locked again!".formatted(worldName), ex);
+        }
+
+        if (locked) {
+            lockedWorlds.add(worldName);
+        } else if (relock) {
+            lockedWorlds.remove(worldName);
+            Logging.error("World '%s' could not be locked again after being saved, so another server may load it while it's in use!", worldName);
+        }
+
+        worldFiles.put(worldName, newFile);
+        oldFile.close();
+    }
+
+    private static boolean tryLock(RandomAccessFile file) throws IOException {
+        try {
+            return file.getChannel().tryLock() != null;
+        } catch (OverlappingFileLockException ex) {
+            return true; // Already locked by this server
         }
+    }
 
-        if (tempFile) {
-            worldFile.close();
+    /**
+     * Forces the entries of a directory to the disk, so files that have just been moved into it stay there after a crash.
+     */
+    private static void syncDirectory(Path dir) throws IOException {
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException ex) {
+            return; // Directories can't be opened on some platforms, such as Windows
+        }
+
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public boolean supportsDeltas() {
+        return true;
+    }
+
+    @Override
+    public void appendDelta(String worldName, WorldDataWriter writer) throws UnknownWorldException, IOException {
+        if (!worldExists(worldName))
+            throw new UnknownWorldException(worldName);
+
+        Lock worldLock = worldLocks.get(worldName);
+        worldLock.lock();
+
+        try {
+            RandomAccessFile worldFile = worldFiles.get(worldName);
+            boolean tempFile = worldFile == null;
+
+            if (tempFile)
+                worldFile = new RandomAccessFile(worldIndex.getFile(worldName).toFile(), "rw");
+
+            // Delta records go right after the data file and any previous record
+            FileChannel channel = worldFile.getChannel();
+            channel.position(channel.size());
+
+            OutputStream stream = new BufferedOutputStream(CloseShieldOutputStream.wrap(Channels.newOutputStream(channel)));
+            writer.writeTo(stream);
+            stream.flush();
+
+            if (tempFile) {
+                worldFile.close();
+            }
+
+            worldIndex.refresh(worldName);
+        } finally {
+            worldLock.unlock();
         }
     }
 
@@ -117,6 +340,8 @@ public class FileLoader implements SlimeLoader {
             throw new UnknownWorldException(worldName);
 
         RandomAccessFile file = worldFiles.remove(worldName);
+        lockedWorlds.remove(worldName);
+
         if (file != null) {
             FileChannel channel = file.getChannel();
             if (channel.isOpen()) {
@@ -129,7 +354,7 @@ public class FileLoader implements SlimeLoader {
     public boolean isWorldLocked(String worldName) throws IOException {
         RandomAccessFile file = worldFiles.get(worldName);
         if (file == null)
-            file = new RandomAccessFile(worldDir.resolve(worldName + ".slime").toFile(), "rw");
+            file = new RandomAccessFile(worldIndex.getFile(worldName).toFile(), "rw");
 
         if (file.getChannel().isOpen()) {
             file.close();
@@ -144,10 +369,14 @@ public class FileLoader implements SlimeLoader {
         if (!worldExists(worldName))
             throw new UnknownWorldException(worldName);
 
+        Lock worldLock = worldLocks.get(worldName);
+        worldLock.lock();
+
         try (RandomAccessFile randomAccessFile = worldFiles.get(worldName)) {
             Logging.info("Deleting world '%s'...", worldName);
             unlockWorld(worldName);
-            FileUtils.forceDelete(worldDir.resolve(worldName + ".slime").toFile());
+            FileUtils.forceDelete(worldIndex.getFile(worldName).toFile());
+            worldIndex.refresh(worldName);
 
             if (randomAccessFile != null) {
                 Logging.info("Attempting to delete worldData '%s'...", worldName);
@@ -160,7 +389,54 @@ public class FileLoader implements SlimeLoader {
             Logging.info("World '%s' deleted.", worldName);
         } catch (IOException ex) {
             Logging.error("Failed to delete world '%s'!".formatted(worldName), ex);
+        } finally {
+            worldLock.unlock();
         }
     }
 
+    /**
+     * Stops watching the world directory.
+     *
+     * @throws IOException if the directory could not stop being watched.
+     */
+    @Override
+    public void close() throws IOException {
+        worldIndex.close();
+    }
+
+    /**
+     * Moves every world that isn't stored where the layout of this loader expects it.
+     * Worlds can still be used while they're moved, as moving a file keeps the handles
+     * opened on it valid, and worlds are looked for in the place of every layout.
+     *
+     * @return The amount of worlds that have been moved.
+     * @throws IOException if a world could not be moved.
+     */
+    public int migrateLayout() throws IOException {
+        int movedWorlds = 0;
+
+        for (String worldName : worldIndex.getWorldNames()) {
+            Path targetFile = layout.resolve(worldDir, worldName);
+            Lock worldLock = worldLocks.get(worldName);
+            worldLock.lock();
+
+            try {
+                Path worldFile = worldIndex.getFile(worldName);
+                if (!worldIndex.contains(worldName) || worldFile.equals(targetFile))
+                    continue;
+
+                Files.createDirectories(targetFile.getParent());
+                Files.move(worldFile, targetFile, StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory(targetFile.getParent());
+                syncDirectory(worldFile.getParent());
+                worldIndex.refresh(worldName);
+                movedWorlds++;
+            } finally {
+                worldLock.unlock();
+            }
+        }
+
+        return movedWorlds;
+    }
+
 }
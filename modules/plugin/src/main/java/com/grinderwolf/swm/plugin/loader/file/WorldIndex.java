@@ -0,0 +1,275 @@
+package com.grinderwolf.swm.plugin.loader.file;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.grinderwolf.swm.plugin.logging.Logging;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the worlds stored in a directory, so listing them and
+ * checking whether they exist doesn't touch the disk. The index is kept current
+ * by a {@link WatchService}. If the directory can't be watched as a whole, for
+ * instance because the system limit of watches has been reached, the index falls
+ * back to scanning the whole directory every now and then.
+ * <p>
+ * Worlds are found in the place of every {@link WorldLayout}, so they can still
+ * be read while they're being moved from one layout to another.
+ */
+final class WorldIndex {
+
+    // Only runs the fallback scans, every index watches its directory in its own thread
+    private static final ScheduledExecutorService SERVICE = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("SWM File Index Thread #%1$d").setDaemon(true).build());
+    private static final ThreadFactory WATCHER_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("SWM File Watcher Thread #%1$d").setDaemon(true).build();
+
+    private static final int MAX_DEPTH = 3; // World files of the sharded layout are two directories deep
+    private static final long RESCAN_INTERVAL = 60000L;
+
+    private final Path worldDir;
+    private final WorldLayout layout;
+    private final Map<String, WorldEntry> worlds = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+    private final ScheduledFuture<?> rescanTask;
+    private WatchService watchService;
+    private volatile boolean polling; // Whether some change may not be watched, so the directory has to be scanned
+
+    WorldIndex(Path worldDir, WorldLayout layout) throws IOException {
+        this.worldDir = worldDir;
+        this.layout = layout;
+
+        watch();
+        scan();
+        this.rescanTask = SERVICE.scheduleWithFixedDelay(this::rescan, RESCAN_INTERVAL, RESCAN_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops keeping the index current. The index can still be read afterwards,
+     * but it's only updated through {@link #refresh(String)}.
+     *
+     * @throws IOException if the watch service could not be closed.
+     */
+    void close() throws IOException {
+        rescanTask.cancel(false);
+
+        if (watchService != null)
+            watchService.close(); // Stops the watcher thread
+    }
+
+    boolean contains(String worldName) {
+        return worlds.containsKey(worldName);
+    }
+
+    WorldEntry get(String worldName) {
+        return worlds.get(worldName);
+    }
+
+    List<String> getWorldNames() {
+        return List.copyOf(worlds.keySet());
+    }
+
+    /**
+     * Gets the file a world is stored in, or the one it should be
+     * stored in according to the layout if it doesn't exist yet.
+     *
+     * @param worldName The name of the world.
+     * @return The file of the world.
+     */
+    Path getFile(String worldName) {
+        WorldEntry entry = worlds.get(worldName);
+        return entry != null ? entry.file() : layout.resolve(worldDir, worldName);
+    }
+
+    /**
+     * Looks for a world again, or drops it from the index if it doesn't exist
+     * anymore. Loaders call this right after changing or moving a world, so
+     * they don't have to wait for the watch service.
+     *
+     * @param worldName The name of the world.
+     */
+    void refresh(String worldName) {
+        // The configured layout comes first, so a world that's being moved is found where it ends up
+        for (Path file : getCandidateFiles(worldName)) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                worlds.put(worldName, new WorldEntry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                return;
+            } catch (NoSuchFileException ignored) {
+            } catch (IOException ex) {
+                Logging.error("Failed to read the attributes of world '%s'!".formatted(worldName), ex);
+                return;
+            }
+        }
+
+        worlds.remove(worldName);
+    }
+
+    private List<Path> getCandidateFiles(String worldName) {
+        return Stream.concat(Stream.of(layout), Stream.of(WorldLayout.values()).filter(other -> other != layout))
+                .map(candidateLayout -> candidateLayout.resolve(worldDir, worldName))
+                .toList();
+    }
+
+    private void scan() throws IOException {
+        Map<String, WorldEntry> scannedWorlds = new HashMap<>();
+
+        try (Stream<Path> stream = Files.walk(worldDir, MAX_DEPTH)) {
+            for (Path file : (Iterable<Path>) stream::iterator) {
+                if (Files.isDirectory(file)) {
+                    register(file);
+                    continue;
+                }
+
+                String worldName = getWorldName(file);
+                if (worldName == null || !getCandidateFiles(worldName).contains(file))
+                    continue;
+
+                // A world found in both layouts is read from the configured one
+                WorldEntry scannedEntry = scannedWorlds.get(worldName);
+                if (scannedEntry != null && scannedEntry.file().equals(layout.resolve(worldDir, worldName)))
+                    continue;
+
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    scannedWorlds.put(worldName, new WorldEntry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                } catch (NoSuchFileException ignored) { // Deleted while scanning
+                }
+            }
+        }
+
+        worlds.putAll(scannedWorlds);
+
+        // Worlds created while scanning may have been missed, so they're looked for again before being dropped
+        for (String worldName : List.copyOf(worlds.keySet())) {
+            if (!scannedWorlds.containsKey(worldName))
+                refresh(worldName);
+        }
+    }
+
+    private void rescan() {
+        if (polling)
+            scanSafely();
+    }
+
+    private void scanSafely() {
+        try {
+            scan();
+        } catch (IOException ex) {
+            Logging.error("Failed to scan world directory '%s'!".formatted(worldDir), ex);
+        }
+    }
+
+    private void watch() {
+        try {
+            watchService = worldDir.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            Logging.warn("Changes to world directory '%s' can't be watched, they'll only be noticed every %d seconds.",
+                    worldDir, TimeUnit.MILLISECONDS.toSeconds(RESCAN_INTERVAL));
+            polling = true;
+            return;
+        }
+
+        WATCHER_THREAD_FACTORY.newThread(() -> {
+            try (watchService) {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    Path dir = (Path) key.watchable();
+
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        // Some events were lost, so there's no telling which worlds have changed
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scanSafely();
+                            continue;
+                        }
+
+                        Path file = dir.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                            index(file); // A new shard, whose worlds may have been moved in already
+                            continue;
+                        }
+
+                        String worldName = getWorldName(file);
+                        if (worldName != null)
+                            refresh(worldName);
+                    }
+
+                    // Directories that can't be watched anymore have been deleted
+                    if (!key.reset())
+                        watchedDirs.remove(dir);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            } catch (IOException ex) {
+                Logging.error("Failed to close the watch service of world directory '%s'!".formatted(worldDir), ex);
+            }
+        }).start();
+    }
+
+    private void index(Path dir) {
+        try (Stream<Path> stream = Files.walk(dir, MAX_DEPTH - worldDir.relativize(dir).getNameCount())) {
+            for (Path file : (Iterable<Path>) stream::iterator) {
+                if (Files.isDirectory(file)) {
+                    register(file);
+                    continue;
+                }
+
+                String worldName = getWorldName(file);
+                if (worldName != null)
+                    refresh(worldName);
+            }
+        } catch (IOException ex) {
+            Logging.error("Failed to scan world directory '%s'!".formatted(dir), ex);
+        }
+    }
+
+    private void register(Path dir) {
+        // Once a directory can't be watched, the whole directory is scanned anyway
+        if (watchService == null || polling || worldDir.relativize(dir).getNameCount() >= MAX_DEPTH)
+            return;
+
+        if (!watchedDirs.add(dir))
+            return;
+
+        try {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            watchedDirs.remove(dir);
+            polling = true;
+
+            // Usually the system limit of watches, which sharded layouts can easily reach
+            Logging.warn("Changes to world directory '%s' can't be watched (%s), they'll only be noticed every %d seconds.",
+                    worldDir, ex.getMessage(), TimeUnit.MILLISECONDS.toSeconds(RESCAN_INTERVAL));
+        }
+    }
+
+    private static String getWorldName(Path file) {
+        String fileName = file.getFileName().toString();
+        if (!fileName.toLowerCase().endsWith(WorldLayout.WORLD_FILE_EXTENSION))
+            return null;
+
+        return fileName.substring(0, fileName.length() - WorldLayout.WORLD_FILE_EXTENSION.length());
+    }
+
+    record WorldEntry(Path file, long size, long lastModified) { }
+
+}
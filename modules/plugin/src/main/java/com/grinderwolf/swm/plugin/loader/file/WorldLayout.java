@@ -0,0 +1,58 @@
+package com.grinderwolf.swm.plugin.loader.file;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * How the world files of a {@link FileLoader} are laid out inside its directory.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum WorldLayout {
+
+    FLAT("flat"),
+    SHARDED("sharded"); // Two levels of directories named after the hash of the world name
+
+    public static final String WORLD_FILE_EXTENSION = ".slime";
+
+    private final String key;
+
+    public static WorldLayout byKey(String key) {
+        for (WorldLayout layout : values()) {
+            if (layout.key.equalsIgnoreCase(key))
+                return layout;
+        }
+
+        throw new IllegalArgumentException("Unknown world layout '" + key + "'!");
+    }
+
+    /**
+     * Gets the file a world is stored in when using this layout.
+     *
+     * @param worldDir  The directory of the loader.
+     * @param worldName The name of the world.
+     * @return The file of the world.
+     */
+    public Path resolve(Path worldDir, String worldName) {
+        String fileName = worldName + WORLD_FILE_EXTENSION;
+
+        return switch (this) {
+            case FLAT -> worldDir.resolve(fileName);
+            case SHARDED -> {
+                CRC32 crc = new CRC32();
+                crc.update(worldName.getBytes(StandardCharsets.UTF_8));
+                int hash = (int) crc.getValue();
+
+                // 65536 shards keep every directory small, even with millions of worlds
+                yield worldDir.resolve("%02x".formatted((hash >>> 8) & 0xFF))
+                        .resolve("%02x".formatted(hash & 0xFF))
+                        .resolve(fileName);
+            }
+        };
+    }
+
+}
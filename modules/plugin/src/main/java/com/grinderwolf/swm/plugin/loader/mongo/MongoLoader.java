@@ -1,10 +1,11 @@
 package com.grinderwolf.swm.plugin.loader.mongo;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.grinderwolf.swm.api.exception.UnknownWorldException;
 import com.grinderwolf.swm.api.exception.WorldInUseException;
+import com.grinderwolf.swm.api.loader.WorldDataWriter;
 import com.grinderwolf.swm.plugin.SWMPlugin;
 import com.grinderwolf.swm.plugin.config.DatasourcesConfig;
+import com.grinderwolf.swm.plugin.loader.LeaseManager;
 import com.grinderwolf.swm.plugin.loader.LoaderUtils;
 import com.grinderwolf.swm.plugin.loader.UpdatableLoader;
 import com.grinderwolf.swm.plugin.logging.Logging;
@@ -13,35 +14,37 @@ import com.mongodb.MongoNamespace;
 import com.mongodb.client.*;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSUploadStream;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.UpdateResult;
+import lombok.Getter;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
-public class MongoLoader extends UpdatableLoader {
+public class MongoLoader extends UpdatableLoader implements Closeable {
 
-    // World locking executor service
-    private static final ScheduledExecutorService SERVICE = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("SWM MongoDB Lock Pool Thread #%1$d").build());
+    // World documents only hold metadata, but older versions may have left other fields in them
+    private static final Bson METADATA_PROJECTION = Projections.include("name", "locked", "size", "version", "updated");
 
     private final String database;
     private final String collection;
     private final MongoClient client;
-    private final Map<String, ScheduledFuture<?>> lockedWorlds;
+    @Getter private final LeaseManager leaseManager;
 
     public MongoLoader(DatasourcesConfig.MongoDBConfig config) throws MongoException {
         String authParams = !config.getUsername().isEmpty() && !config.getPassword().isEmpty() ? config.getUsername() + ":" + config.getPassword() + "@" : "";
@@ -51,7 +54,7 @@ public class MongoLoader extends UpdatableLoader {
         this.database = config.getDatabase();
         this.collection = config.getCollection();
         this.client = MongoClients.create(uri);
-        this.lockedWorlds = new HashMap<>();
+        this.leaseManager = new LeaseManager("mongodb", this::renewLocks, this::releaseLocks);
 
         MongoDatabase mongoDatabase = client.getDatabase(database);
         MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
@@ -105,11 +108,20 @@ public class MongoLoader extends UpdatableLoader {
 
     @Override
     public byte[] loadWorld(String worldName, boolean readOnly) throws UnknownWorldException, IOException, WorldInUseException {
+        try (InputStream stream = openWorldStream(worldName, readOnly)) {
+            return stream.readAllBytes();
+        } catch (MongoException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public InputStream openWorldStream(String worldName, boolean readOnly) throws UnknownWorldException, IOException, WorldInUseException {
         try {
             MongoDatabase mongoDatabase = client.getDatabase(database);
             MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
 
-            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).first();
+            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).projection(METADATA_PROJECTION).first();
             if (worldDoc == null)
                 throw new UnknownWorldException(worldName);
 
@@ -118,29 +130,33 @@ public class MongoLoader extends UpdatableLoader {
                 if (System.currentTimeMillis() - lockedMillis <= LoaderUtils.MAX_LOCK_TIME)
                     throw new WorldInUseException(worldName);
 
-                updateLock(worldName, true);
+                leaseManager.acquire(worldName);
             }
 
             GridFSBucket bucket = GridFSBuckets.create(mongoDatabase, collection);
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            bucket.downloadToStream(worldName, stream);
-            return stream.toByteArray();
+            return bucket.openDownloadStream(worldName);
         } catch (MongoException ex) {
             throw new IOException(ex);
         }
     }
 
-    private void updateLock(String worldName, boolean forceSchedule) {
+    private void renewLocks(Collection<String> worldNames, long lockMillis) throws IOException {
         try {
             MongoDatabase mongoDatabase = client.getDatabase(database);
             MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
-            mongoCollection.updateOne(Filters.eq("name", worldName), Updates.set("locked", System.currentTimeMillis()));
+            mongoCollection.updateMany(Filters.in("name", worldNames), Updates.set("locked", lockMillis));
         } catch (MongoException ex) {
-            Logging.error("Failed to update lock for world '%s'!".formatted(worldName), ex);
+            throw new IOException(ex);
         }
+    }
 
-        if (forceSchedule || lockedWorlds.containsKey(worldName)) { // Only schedule another update if the world is still on the map
-            lockedWorlds.put(worldName, SERVICE.schedule(() -> updateLock(worldName, false), LoaderUtils.LOCK_INTERVAL, TimeUnit.MILLISECONDS));
+    private void releaseLocks(Collection<String> worldNames, long lockMillis) throws IOException {
+        try {
+            MongoDatabase mongoDatabase = client.getDatabase(database);
+            MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
+            mongoCollection.updateMany(Filters.and(Filters.in("name", worldNames), Filters.eq("locked", lockMillis)), Updates.set("locked", 0L));
+        } catch (MongoException ex) {
+            throw new IOException(ex);
         }
     }
 
@@ -149,13 +165,40 @@ public class MongoLoader extends UpdatableLoader {
         try {
             MongoDatabase mongoDatabase = client.getDatabase(database);
             MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
-            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).first();
+            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).projection(METADATA_PROJECTION).first();
             return worldDoc != null;
         } catch (MongoException ex) {
             throw new IOException(ex);
         }
     }
 
+    @Override
+    public String getContentVersion(String worldName) throws UnknownWorldException, IOException {
+        try {
+            MongoDatabase mongoDatabase = client.getDatabase(database);
+            MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
+
+            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).projection(METADATA_PROJECTION).first();
+            if (worldDoc == null)
+                throw new UnknownWorldException(worldName);
+
+            // Every save uploads a new file, so its id tells which data file is the current one
+            String version = worldDoc.getString("version");
+            if (version != null)
+                return version;
+
+            // Worlds that haven't been saved since their metadata was added
+            GridFSBucket bucket = GridFSBuckets.create(mongoDatabase, collection);
+            GridFSFile file = bucket.find(Filters.eq("filename", worldName)).sort(Sorts.descending("uploadDate")).first();
+            if (file == null)
+                throw new UnknownWorldException(worldName);
+
+            return file.getObjectId().toHexString();
+        } catch (MongoException ex) {
+            throw new IOException(ex);
+        }
+    }
+
     @Override
     public List<String> listWorlds() throws IOException {
         List<String> worldList = new ArrayList<>();
@@ -164,7 +207,7 @@ public class MongoLoader extends UpdatableLoader {
             MongoDatabase mongoDatabase = client.getDatabase(database);
             MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
 
-            try (MongoCursor<Document> documents = mongoCollection.find().cursor()) {
+            try (MongoCursor<Document> documents = mongoCollection.find().projection(Projections.include("name")).cursor()) {
                 while (documents.hasNext()) {
                     worldList.add(documents.next().getString("name"));
                 }
@@ -178,23 +221,46 @@ public class MongoLoader extends UpdatableLoader {
 
     @Override
     public void saveWorld(String worldName, byte[] serializedWorld, boolean lock) throws IOException {
+        saveWorld(worldName, stream -> stream.write(serializedWorld), lock);
+    }
+
+    @Override
+    public void saveWorld(String worldName, WorldDataWriter writer, boolean lock) throws IOException {
         try {
             MongoDatabase mongoDatabase = client.getDatabase(database);
             GridFSBucket bucket = GridFSBuckets.create(mongoDatabase, collection);
-            bucket.uploadFromStream(worldName, new ByteArrayInputStream(serializedWorld));
 
-            GridFSFile oldFile = bucket.find(Filters.eq("filename", worldName)).first();
-            if (oldFile != null)
+            ObjectId fileId;
+            long size;
+
+            try (GridFSUploadStream uploadStream = bucket.openUploadStream(worldName)) {
+                CountingOutputStream countingStream = new CountingOutputStream(uploadStream);
+                writer.writeTo(countingStream);
+                countingStream.flush();
+
+                fileId = uploadStream.getObjectId();
+                size = countingStream.getByteCount();
+            }
+
+            for (GridFSFile oldFile : bucket.find(Filters.and(Filters.eq("filename", worldName), Filters.ne("_id", fileId))))
                 bucket.delete(oldFile.getObjectId());
 
             MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
 
-            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).first();
+            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).projection(METADATA_PROJECTION).first();
+            long updated = System.currentTimeMillis();
+
             if (worldDoc == null) {
                 long lockMillis = lock ? System.currentTimeMillis() : 0L;
-                mongoCollection.insertOne(new Document().append("name", worldName).append("locked", lockMillis));
-            } else if (System.currentTimeMillis() - worldDoc.getLong("locked") > LoaderUtils.MAX_LOCK_TIME && lock) {
-                updateLock(worldName, true);
+                mongoCollection.insertOne(new Document().append("name", worldName).append("locked", lockMillis)
+                        .append("size", size).append("version", fileId.toHexString()).append("updated", updated));
+            } else {
+                mongoCollection.updateOne(Filters.eq("name", worldName), Updates.combine(Updates.set("size", size),
+                        Updates.set("version", fileId.toHexString()), Updates.set("updated", updated)));
+
+                if (System.currentTimeMillis() - worldDoc.getLong("locked") > LoaderUtils.MAX_LOCK_TIME && lock) {
+                    leaseManager.acquire(worldName);
+                }
             }
         } catch (MongoException ex) {
             throw new IOException(ex);
@@ -203,9 +269,7 @@ public class MongoLoader extends UpdatableLoader {
 
     @Override
     public void unlockWorld(String worldName) throws IOException, UnknownWorldException {
-        ScheduledFuture<?> future = lockedWorlds.remove(worldName);
-        if (future != null)
-            future.cancel(false);
+        leaseManager.release(worldName);
 
         try {
             MongoDatabase mongoDatabase = client.getDatabase(database);
@@ -222,14 +286,14 @@ public class MongoLoader extends UpdatableLoader {
 
     @Override
     public boolean isWorldLocked(String worldName) throws IOException, UnknownWorldException {
-        if (lockedWorlds.containsKey(worldName))
+        if (leaseManager.holds(worldName))
             return true;
 
         try {
             MongoDatabase mongoDatabase = client.getDatabase(database);
             MongoCollection<Document> mongoCollection = mongoDatabase.getCollection(collection);
 
-            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).first();
+            Document worldDoc = mongoCollection.find(Filters.eq("name", worldName)).projection(METADATA_PROJECTION).first();
             if (worldDoc == null)
                 throw new UnknownWorldException(worldName);
 
@@ -241,9 +305,7 @@ public class MongoLoader extends UpdatableLoader {
 
     @Override
     public void deleteWorld(String worldName) throws IOException, UnknownWorldException {
-        ScheduledFuture<?> future = lockedWorlds.remove(worldName);
-        if (future != null)
-            future.cancel(false);
+        leaseManager.release(worldName);
 
         try {
             MongoDatabase mongoDatabase = client.getDatabase(database);
@@ -266,4 +328,13 @@ public class MongoLoader extends UpdatableLoader {
         }
     }
 
+    /**
+     * Stops renewing the world locks of this data source, and closes its client.
+     */
+    @Override
+    public void close() {
+        leaseManager.close();
+        client.close();
+    }
+
 }
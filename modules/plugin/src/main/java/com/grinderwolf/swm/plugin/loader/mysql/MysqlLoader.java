@@ -1,36 +1,42 @@
 package com.grinderwolf.swm.plugin.loader.mysql;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.grinderwolf.swm.api.exception.UnknownWorldException;
 import com.grinderwolf.swm.api.exception.WorldInUseException;
+import com.grinderwolf.swm.api.loader.WorldDataWriter;
 import com.grinderwolf.swm.plugin.config.DatasourcesConfig;
+import com.grinderwolf.swm.plugin.loader.LeaseManager;
 import com.grinderwolf.swm.plugin.loader.LoaderUtils;
 import com.grinderwolf.swm.plugin.loader.UpdatableLoader;
 import com.grinderwolf.swm.plugin.logging.Logging;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import lombok.Getter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-public class MysqlLoader extends UpdatableLoader {
+public class MysqlLoader extends UpdatableLoader implements Closeable {
 
-    // World locking executor service
-    private static final ScheduledExecutorService SERVICE = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
-            .setNameFormat("SWM MySQL Lock Pool Thread #%1$d").build());
+    private static final int CURRENT_DB_VERSION = 3;
 
-    private static final int CURRENT_DB_VERSION = 1;
+    // Worlds are split into rows of this size, so they aren't capped by the size of a blob nor sent in a single packet
+    private static final int WORLD_CHUNK_SIZE = 1024 * 1024;
+    private static final int WORLD_CHUNKS_PER_BATCH = 8;
 
     // Database version handling queries
     private static final String CREATE_VERSIONING_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS `database_version` (`id` INT NOT NULL AUTO_INCREMENT, `version` INT(11), PRIMARY KEY(id));";
@@ -40,16 +46,42 @@ public class MysqlLoader extends UpdatableLoader {
     // v1 update query
     private static final String ALTER_LOCKED_COLUMN_QUERY = "ALTER TABLE `worlds` CHANGE COLUMN `locked` `locked` BIGINT NOT NULL DEFAULT 0;";
 
+    // v3 update queries
+    private static final String ADD_METADATA_COLUMNS_QUERY = "ALTER TABLE `worlds` ADD COLUMN `size` BIGINT NOT NULL DEFAULT 0, ADD COLUMN `updated` BIGINT NOT NULL DEFAULT 0;";
+    private static final String FILL_SIZE_COLUMN_QUERY = "UPDATE `worlds` SET `size` = LENGTH(`world`) WHERE `world` IS NOT NULL;";
+
     // World handling queries
     private static final String CREATE_WORLDS_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS `worlds` (`id` INT NOT NULL AUTO_INCREMENT, `name` VARCHAR(255) UNIQUE, `world` MEDIUMBLOB, `locked` BIGINT, PRIMARY KEY(id));";
     private static final String SELECT_WORLD_QUERY = "SELECT `world`, `locked` FROM `worlds` WHERE `name` = ?;";
-    private static final String UPDATE_WORLD_QUERY = "INSERT INTO `worlds` (`name`, `world`, `locked`) VALUES (?, ?, 1) ON DUPLICATE KEY UPDATE `world` = ?;";
+    private static final String SELECT_METADATA_QUERY = "SELECT `locked`, `size`, `updated` FROM `worlds` WHERE `name` = ?;";
+    private static final String UPDATE_WORLD_QUERY = "INSERT INTO `worlds` (`name`, `world`, `locked`, `size`, `updated`) VALUES (?, NULL, 1, ?, ?) ON DUPLICATE KEY UPDATE `world` = NULL, `size` = ?, `updated` = ?;";
     private static final String UPDATE_LOCK_QUERY = "UPDATE `worlds` SET `locked` = ? WHERE `name` = ?;";
+    private static final String RENEW_LOCKS_QUERY = "UPDATE `worlds` SET `locked` = ? WHERE `name` IN (%s);";
+    private static final String RELEASE_LOCKS_QUERY = "UPDATE `worlds` SET `locked` = 0 WHERE `locked` = ? AND `name` IN (%s);";
     private static final String DELETE_WORLD_QUERY = "DELETE FROM `worlds` WHERE `name` = ?;";
     private static final String LIST_WORLDS_QUERY = "SELECT `name` FROM `worlds`;";
+    private static final String SELECT_CONTENT_VERSION_QUERY = "SELECT `updated`, `size`, (SELECT MAX(`id`) FROM `world_chunks` WHERE `world` = `worlds`.`name`), "
+            + "(SELECT MAX(`id`) FROM `world_deltas` WHERE `world` = `worlds`.`name`) FROM `worlds` WHERE `name` = ?;";
+
+    // World chunk handling queries, used by every world whose `world` column is NULL
+    private static final String CREATE_CHUNKS_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS `world_chunks` (`id` BIGINT NOT NULL AUTO_INCREMENT, `world` VARCHAR(255) NOT NULL, `index` INT NOT NULL, `data` MEDIUMBLOB NOT NULL, PRIMARY KEY(id), UNIQUE(`world`, `index`));";
+    private static final String SELECT_CHUNKS_QUERY = "SELECT `data` FROM `world_chunks` WHERE `world` = ? ORDER BY `index`;";
+    private static final String INSERT_CHUNK_QUERY = "INSERT INTO `world_chunks` (`world`, `index`, `data`) VALUES (?, ?, ?);";
+    private static final String DELETE_CHUNKS_QUERY = "DELETE FROM `world_chunks` WHERE `world` = ?;";
+
+    // Delta record handling queries
+    private static final String CREATE_DELTAS_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS `world_deltas` (`id` BIGINT NOT NULL AUTO_INCREMENT, `world` VARCHAR(255) NOT NULL, `delta` MEDIUMBLOB, PRIMARY KEY(id), INDEX(world));";
+    private static final String SELECT_DELTAS_QUERY = "SELECT `delta` FROM `world_deltas` WHERE `world` = ? ORDER BY `id`;";
+    private static final String INSERT_DELTA_QUERY = "INSERT INTO `world_deltas` (`world`, `delta`) VALUES (?, ?);";
+    private static final String DELETE_DELTAS_QUERY = "DELETE FROM `world_deltas` WHERE `world` = ?;";
+
+    // Keeps the IN clause of lock renewals within the limits of the server
+    private static final int MAX_RENEWED_LOCKS = 1000;
+    // Renewals taking longer than an interval are given up on by the lease manager anyway
+    private static final int LOCK_QUERY_TIMEOUT = (int) TimeUnit.MILLISECONDS.toSeconds(LoaderUtils.LOCK_INTERVAL);
 
     private final HikariDataSource source;
-    private final Map<String, ScheduledFuture<?>> lockedWorlds;
+    @Getter private final LeaseManager leaseManager;
 
     public MysqlLoader(DatasourcesConfig.MysqlConfig config) throws SQLException {
         HikariConfig hikariConfig = new HikariConfig();
@@ -76,7 +108,7 @@ public class MysqlLoader extends UpdatableLoader {
         hikariConfig.addDataSourceProperty("maintainTimeStats", "false");
 
         this.source = new HikariDataSource(hikariConfig);
-        this.lockedWorlds = new HashMap<>();
+        this.leaseManager = new LeaseManager("mysql", this::renewLocks, this::releaseLocks);
 
         try (Connection connection = source.getConnection()) {
             // Create worlds table
@@ -84,6 +116,16 @@ public class MysqlLoader extends UpdatableLoader {
                 statement.execute();
             }
 
+            // Create world chunks table
+            try (PreparedStatement statement = connection.prepareStatement(CREATE_CHUNKS_TABLE_QUERY)) {
+                statement.execute();
+            }
+
+            // Create delta records table
+            try (PreparedStatement statement = connection.prepareStatement(CREATE_DELTAS_TABLE_QUERY)) {
+                statement.execute();
+            }
+
             // Create versioning table
             try (PreparedStatement statement = connection.prepareStatement(CREATE_VERSIONING_TABLE_QUERY)) {
                 statement.execute();
@@ -118,8 +160,24 @@ public class MysqlLoader extends UpdatableLoader {
                 }
 
                 // Update to v1: alter locked column to store a long
-                try (PreparedStatement statement = con.prepareStatement(ALTER_LOCKED_COLUMN_QUERY)) {
-                    statement.executeUpdate();
+                if (version < 1) {
+                    try (PreparedStatement statement = con.prepareStatement(ALTER_LOCKED_COLUMN_QUERY)) {
+                        statement.executeUpdate();
+                    }
+                }
+
+                // Update to v2: worlds are moved to the world chunks table the next time they're saved,
+                // which older versions can't read. The table itself is created along with the others.
+
+                // Update to v3: add the metadata columns, so lookups don't have to read the world
+                if (version < 3) {
+                    try (PreparedStatement statement = con.prepareStatement(ADD_METADATA_COLUMNS_QUERY)) {
+                        statement.executeUpdate();
+                    }
+
+                    try (PreparedStatement statement = con.prepareStatement(FILL_SIZE_COLUMN_QUERY)) {
+                        statement.executeUpdate();
+                    }
                 }
 
                 // Insert/update database version table
@@ -136,8 +194,18 @@ public class MysqlLoader extends UpdatableLoader {
 
     @Override
     public byte[] loadWorld(String worldName, boolean readOnly) throws UnknownWorldException, IOException, WorldInUseException {
-        try (Connection connection = source.getConnection();
-            PreparedStatement statement = connection.prepareStatement(SELECT_WORLD_QUERY)) {
+        try (InputStream stream = openWorldStream(worldName, readOnly)) {
+            return stream.readAllBytes();
+        }
+    }
+
+    @Override
+    public InputStream openWorldStream(String worldName, boolean readOnly) throws UnknownWorldException, IOException, WorldInUseException {
+        Connection connection = null;
+
+        try {
+            connection = source.getConnection();
+            PreparedStatement statement = connection.prepareStatement(SELECT_WORLD_QUERY);
             statement.setString(1, worldName);
 
             ResultSet set = statement.executeQuery();
@@ -149,40 +217,109 @@ public class MysqlLoader extends UpdatableLoader {
                 if (System.currentTimeMillis() - lockedMillis <= LoaderUtils.MAX_LOCK_TIME)
                     throw new WorldInUseException(worldName);
 
-                updateLock(worldName, true);
+                leaseManager.acquire(worldName);
             }
 
-            return set.getBytes("world");
+            // Delta records are small, so they're read right away
+            List<InputStream> deltaStreams = new ArrayList<>();
+
+            try (PreparedStatement deltasStatement = connection.prepareStatement(SELECT_DELTAS_QUERY)) {
+                deltasStatement.setString(1, worldName);
+
+                ResultSet deltasSet = deltasStatement.executeQuery();
+                while (deltasSet.next()) {
+                    deltaStreams.add(new ByteArrayInputStream(deltasSet.getBytes("delta")));
+                }
+            }
+
+            InputStream worldStream = set.getBinaryStream("world");
+            if (worldStream == null) { // Stored in the world chunks table
+                // Rows are fetched one at a time, so this must be the last query until the stream gets closed
+                PreparedStatement chunksStatement = connection.prepareStatement(SELECT_CHUNKS_QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                chunksStatement.setFetchSize(Integer.MIN_VALUE);
+                chunksStatement.setString(1, worldName);
+                worldStream = new ChunksInputStream(chunksStatement.executeQuery());
+            }
+
+            List<InputStream> streams = new ArrayList<>();
+            streams.add(worldStream);
+            streams.addAll(deltaStreams);
+
+            // The connection is held until the stream gets closed, so the blob doesn't have to be copied
+            InputStream stream = new ConnectionInputStream(new SequenceInputStream(Collections.enumeration(streams)), connection);
+            connection = null;
+            return stream;
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    Logging.error("Failed to close connection for world '%s'!".formatted(worldName), ex);
+                }
+            }
+        }
+    }
+
+    private void renewLocks(Collection<String> worldNames, long lockMillis) throws IOException {
+        updateLocks(RENEW_LOCKS_QUERY, worldNames, lockMillis);
+    }
+
+    private void releaseLocks(Collection<String> worldNames, long lockMillis) throws IOException {
+        updateLocks(RELEASE_LOCKS_QUERY, worldNames, lockMillis);
+    }
+
+    private void updateLocks(String queryFormat, Collection<String> worldNames, long lockMillis) throws IOException {
+        List<String> names = List.copyOf(worldNames);
+
+        try (Connection connection = source.getConnection()) {
+            for (int start = 0; start < names.size(); start += MAX_RENEWED_LOCKS) {
+                List<String> batch = names.subList(start, Math.min(names.size(), start + MAX_RENEWED_LOCKS));
+                String query = queryFormat.formatted(String.join(", ", Collections.nCopies(batch.size(), "?")));
+
+                try (PreparedStatement statement = connection.prepareStatement(query)) {
+                    statement.setQueryTimeout(LOCK_QUERY_TIMEOUT);
+                    statement.setLong(1, lockMillis);
+                    for (int i = 0; i < batch.size(); i++) {
+                        statement.setString(i + 2, batch.get(i));
+                    }
+
+                    statement.executeUpdate();
+                }
+            }
         } catch (SQLException ex) {
             throw new IOException(ex);
         }
     }
 
-    private void updateLock(String worldName, boolean forceSchedule) {
+    @Override
+    public boolean worldExists(String worldName) throws IOException {
         try (
                 Connection connection = source.getConnection();
-                PreparedStatement statement = connection.prepareStatement(UPDATE_LOCK_QUERY)
+                PreparedStatement statement = connection.prepareStatement(SELECT_METADATA_QUERY)
         ) {
-            statement.setLong(1, System.currentTimeMillis());
-            statement.setString(2, worldName);
-            statement.executeUpdate();
+            statement.setString(1, worldName);
+            return statement.executeQuery().next();
         } catch (SQLException ex) {
-            Logging.error("Failed to update lock for world '%s'!".formatted(worldName), ex);
-        }
-
-        if (forceSchedule || lockedWorlds.containsKey(worldName)) { // Only schedule another update if the world is still on the map
-            lockedWorlds.put(worldName, SERVICE.schedule(() -> updateLock(worldName, false), LoaderUtils.LOCK_INTERVAL, TimeUnit.MILLISECONDS));
+            throw new IOException(ex);
         }
     }
 
     @Override
-    public boolean worldExists(String worldName) throws IOException {
+    public String getContentVersion(String worldName) throws UnknownWorldException, IOException {
         try (
                 Connection connection = source.getConnection();
-                PreparedStatement statement = connection.prepareStatement(SELECT_WORLD_QUERY)
+                PreparedStatement statement = connection.prepareStatement(SELECT_CONTENT_VERSION_QUERY)
         ) {
             statement.setString(1, worldName);
-            return statement.executeQuery().next();
+
+            ResultSet set = statement.executeQuery();
+            if (!set.next())
+                throw new UnknownWorldException(worldName);
+
+            // Chunk and delta ids keep growing even after saves drop the old rows
+            return set.getLong(1) + ":" + set.getLong(2) + ":" + set.getLong(3) + ":" + set.getLong(4);
         } catch (SQLException ex) {
             throw new IOException(ex);
         }
@@ -209,18 +346,79 @@ public class MysqlLoader extends UpdatableLoader {
 
     @Override
     public void saveWorld(String worldName, byte[] serializedWorld, boolean lock) throws IOException {
+        saveWorld(worldName, stream -> stream.write(serializedWorld), lock);
+    }
+
+    @Override
+    public void saveWorld(String worldName, WorldDataWriter writer, boolean lock) throws IOException {
+        try (Connection connection = source.getConnection()) {
+            // The new data file and the removal of the old chunks and delta records must be seen together
+            connection.setAutoCommit(false);
+
+            try (
+                    PreparedStatement statement = connection.prepareStatement(UPDATE_WORLD_QUERY);
+                    PreparedStatement deleteChunksStatement = connection.prepareStatement(DELETE_CHUNKS_QUERY);
+                    PreparedStatement chunkStatement = connection.prepareStatement(INSERT_CHUNK_QUERY);
+                    PreparedStatement deltasStatement = connection.prepareStatement(DELETE_DELTAS_QUERY)
+            ) {
+                deleteChunksStatement.setString(1, worldName);
+                deleteChunksStatement.executeUpdate();
+
+                long size;
+                try (ChunksOutputStream stream = new ChunksOutputStream(worldName, chunkStatement)) {
+                    writer.writeTo(stream);
+                    size = stream.size;
+                }
+
+                long updated = System.currentTimeMillis();
+                statement.setString(1, worldName);
+                statement.setLong(2, size);
+                statement.setLong(3, updated);
+                statement.setLong(4, size);
+                statement.setLong(5, updated);
+                statement.executeUpdate();
+
+                deltasStatement.setString(1, worldName);
+                deltasStatement.executeUpdate();
+
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            if (lock) {
+                leaseManager.acquire(worldName);
+            }
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public boolean supportsDeltas() {
+        return true;
+    }
+
+    @Override
+    public void appendDelta(String worldName, WorldDataWriter writer) throws UnknownWorldException, IOException {
+        ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+        writer.writeTo(deltaStream);
+
         try (
                 Connection connection = source.getConnection();
-                PreparedStatement statement = connection.prepareStatement(UPDATE_WORLD_QUERY)
+                PreparedStatement statement = connection.prepareStatement(SELECT_METADATA_QUERY);
+                PreparedStatement deltaStatement = connection.prepareStatement(INSERT_DELTA_QUERY)
         ) {
             statement.setString(1, worldName);
-            statement.setBytes(2, serializedWorld);
-            statement.setBytes(3, serializedWorld);
-            statement.executeUpdate();
+            if (!statement.executeQuery().next())
+                throw new UnknownWorldException(worldName);
 
-            if (lock) {
-                updateLock(worldName, true);
-            }
+            deltaStatement.setString(1, worldName);
+            deltaStatement.setBytes(2, deltaStream.toByteArray());
+            deltaStatement.executeUpdate();
         } catch (SQLException ex) {
             throw new IOException(ex);
         }
@@ -228,9 +426,7 @@ public class MysqlLoader extends UpdatableLoader {
 
     @Override
     public void unlockWorld(String worldName) throws IOException, UnknownWorldException {
-        ScheduledFuture<?> future = lockedWorlds.remove(worldName);
-        if (future != null)
-            future.cancel(false);
+        leaseManager.release(worldName);
 
         try (
                 Connection connection = source.getConnection();
@@ -249,12 +445,12 @@ public class MysqlLoader extends UpdatableLoader {
 
     @Override
     public boolean isWorldLocked(String worldName) throws IOException, UnknownWorldException {
-        if (lockedWorlds.containsKey(worldName))
+        if (leaseManager.holds(worldName))
             return true;
 
         try (
                 Connection connection = source.getConnection();
-                PreparedStatement statement = connection.prepareStatement(SELECT_WORLD_QUERY)
+                PreparedStatement statement = connection.prepareStatement(SELECT_METADATA_QUERY)
         ) {
             statement.setString(1, worldName);
 
@@ -270,22 +466,176 @@ public class MysqlLoader extends UpdatableLoader {
 
     @Override
     public void deleteWorld(String worldName) throws IOException, UnknownWorldException {
-        ScheduledFuture<?> future = lockedWorlds.remove(worldName);
-        if (future != null)
-            future.cancel(false);
+        leaseManager.release(worldName);
 
         try (
                 Connection connection = source.getConnection();
-                PreparedStatement statement = connection.prepareStatement(DELETE_WORLD_QUERY)
+                PreparedStatement statement = connection.prepareStatement(DELETE_WORLD_QUERY);
+                PreparedStatement chunksStatement = connection.prepareStatement(DELETE_CHUNKS_QUERY);
+                PreparedStatement deltasStatement = connection.prepareStatement(DELETE_DELTAS_QUERY)
         ) {
             statement.setString(1, worldName);
 
             if (statement.executeUpdate() == 0) {
                 throw new UnknownWorldException(worldName);
             }
+
+            chunksStatement.setString(1, worldName);
+            chunksStatement.executeUpdate();
+
+            deltasStatement.setString(1, worldName);
+            deltasStatement.executeUpdate();
         } catch (SQLException ex) {
             throw new IOException(ex);
         }
     }
 
+    /**
+     * Stops renewing the world locks of this data source, and closes its connection pool.
+     */
+    @Override
+    public void close() {
+        leaseManager.close();
+        source.close();
+    }
+
+    /**
+     * Reads the rows of the world chunks table one after another.
+     */
+    private static final class ChunksInputStream extends InputStream {
+
+        private final ResultSet set;
+        private InputStream chunkStream = InputStream.nullInputStream();
+
+        private ChunksInputStream(ResultSet set) {
+            this.set = set;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+
+            while (true) {
+                int count = chunkStream.read(buffer, offset, length);
+                if (count != -1)
+                    return count;
+
+                try {
+                    if (!set.next())
+                        return -1;
+
+                    chunkStream = set.getBinaryStream("data");
+                } catch (SQLException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Splits the data written into it into rows of the world chunks table, which
+     * are sent in batches so only a few of them are kept in memory at once.
+     */
+    private static final class ChunksOutputStream extends OutputStream {
+
+        private final String worldName;
+        private final PreparedStatement statement;
+
+        private byte[] chunk = new byte[WORLD_CHUNK_SIZE];
+        private int chunkLength;
+        private int chunkIndex;
+        private long size;
+        private int batchedChunks;
+
+        private ChunksOutputStream(String worldName, PreparedStatement statement) {
+            this.worldName = worldName;
+            this.statement = statement;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, WORLD_CHUNK_SIZE - chunkLength);
+                System.arraycopy(buffer, offset, chunk, chunkLength, count);
+                chunkLength += count;
+                size += count;
+                offset += count;
+                length -= count;
+
+                if (chunkLength == WORLD_CHUNK_SIZE)
+                    addChunk();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (chunkLength > 0)
+                addChunk();
+
+            if (batchedChunks > 0)
+                executeBatch();
+        }
+
+        private void addChunk() throws IOException {
+            try {
+                statement.setString(1, worldName);
+                statement.setInt(2, chunkIndex++);
+                statement.setBinaryStream(3, new ByteArrayInputStream(chunk, 0, chunkLength), chunkLength);
+                statement.addBatch();
+            } catch (SQLException ex) {
+                throw new IOException(ex);
+            }
+
+            // The statement still reads from the previous array until the batch is sent
+            chunk = new byte[WORLD_CHUNK_SIZE];
+            chunkLength = 0;
+
+            if (++batchedChunks == WORLD_CHUNKS_PER_BATCH)
+                executeBatch();
+        }
+
+        private void executeBatch() throws IOException {
+            try {
+                statement.executeBatch();
+                batchedChunks = 0;
+            } catch (SQLException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+    }
+
+    private static final class ConnectionInputStream extends FilterInputStream {
+
+        private final Connection connection;
+
+        private ConnectionInputStream(InputStream in, Connection connection) {
+            super(in);
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (connection) { // Closes the statement and the result set as well
+                super.close();
+            } catch (SQLException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+    }
+
 }
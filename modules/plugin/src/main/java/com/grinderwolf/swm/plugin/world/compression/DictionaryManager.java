@@ -0,0 +1,105 @@
+package com.grinderwolf.swm.plugin.world.compression;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import com.grinderwolf.swm.api.exception.CorruptedWorldException;
+import com.grinderwolf.swm.api.exception.NewerFormatException;
+import com.grinderwolf.swm.api.exception.UnknownWorldException;
+import com.grinderwolf.swm.api.exception.WorldInUseException;
+import com.grinderwolf.swm.api.loader.SlimeLoader;
+import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import com.grinderwolf.swm.nms.CraftSlimeWorld;
+import com.grinderwolf.swm.nms.ZstdDictionaries;
+import com.grinderwolf.swm.plugin.config.ConfigManager;
+import com.grinderwolf.swm.plugin.loader.LoaderUtils;
+import com.grinderwolf.swm.plugin.logging.Logging;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Loads the trained zstd dictionaries from the plugin folder, and trains
+ * new ones out of the worlds stored inside a data source.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class DictionaryManager {
+
+    private static final Path DICTIONARIES_DIR = Paths.get("plugins", "SlimeWorldManager", "dictionaries");
+    private static final String DICTIONARY_EXTENSION = ".zdict";
+
+    public static final int DEFAULT_DICTIONARY_SIZE = 112640; // Same as the zstd CLI
+    private static final int MAX_SAMPLES_SIZE = 100 * DEFAULT_DICTIONARY_SIZE;
+
+    /**
+     * Registers every dictionary inside the dictionaries folder, and
+     * activates the one set in the main config file.
+     */
+    public static void loadDictionaries() {
+        if (Files.isDirectory(DICTIONARIES_DIR)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(DICTIONARIES_DIR, "*" + DICTIONARY_EXTENSION)) {
+                for (Path file : files) {
+                    try {
+                        ZstdDictionaries.register(Files.readAllBytes(file));
+                    } catch (IOException | IllegalArgumentException ex) {
+                        Logging.error("Failed to load dictionary '%s'!".formatted(file.getFileName()), ex);
+                    }
+                }
+            } catch (IOException ex) {
+                Logging.error("Failed to list the dictionaries folder!", ex);
+            }
+        }
+
+        int dictionaryId = (int) ConfigManager.getMainConfig().getCompressionConfig().getDictionary();
+
+        if (!ZstdDictionaries.isRegistered(dictionaryId)) {
+            Logging.error("Unknown dictionary %s, worlds will be saved without a dictionary.", Integer.toUnsignedString(dictionaryId));
+            dictionaryId = ZstdDictionaries.NO_DICTIONARY;
+        }
+
+        ZstdDictionaries.setActiveDictionary(dictionaryId);
+    }
+
+    /**
+     * Trains a new dictionary out of every world stored inside a data source,
+     * and saves it inside the dictionaries folder. Worlds are loaded in
+     * read-only mode, so they can still be used while this is running.
+     *
+     * @param loader         The loader of the data source.
+     * @param dictionarySize The maximum size of the dictionary, in bytes.
+     * @return The id of the new dictionary.
+     * @throws IOException if the worlds could not be read or there's not enough data to train the dictionary.
+     */
+    public static int trainDictionary(SlimeLoader loader, int dictionarySize) throws IOException {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(Math.max(MAX_SAMPLES_SIZE, dictionarySize * 100), dictionarySize);
+
+        for (String worldName : loader.listWorlds()) {
+            try (InputStream worldStream = loader.openWorldStream(worldName, true)) {
+                CraftSlimeWorld world = LoaderUtils.deserializeWorld(loader, worldName, worldStream, new SlimePropertyMap(), true);
+                world.collectDictionarySamples(trainer::addSample);
+            } catch (UnknownWorldException | WorldInUseException | CorruptedWorldException | NewerFormatException | IOException ex) {
+                Logging.warn("Skipping world '%s' while training dictionary: %s", worldName, ex.getMessage());
+            }
+        }
+
+        byte[] dictionary;
+        try {
+            dictionary = trainer.trainSamples();
+        } catch (ZstdException ex) {
+            throw new IOException("Not enough data to train a dictionary", ex);
+        }
+
+        int dictionaryId = ZstdDictionaries.register(dictionary);
+
+        Files.createDirectories(DICTIONARIES_DIR);
+        Files.write(DICTIONARIES_DIR.resolve(Integer.toUnsignedString(dictionaryId) + DICTIONARY_EXTENSION), dictionary);
+
+        return dictionaryId;
+    }
+
+}
@@ -8,9 +8,11 @@ import com.grinderwolf.swm.api.world.SlimeChunk;
 import com.grinderwolf.swm.api.world.SlimeChunkSection;
 import com.grinderwolf.swm.api.world.properties.SlimeProperties;
 import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import com.grinderwolf.swm.nms.ChunkMap;
 import com.grinderwolf.swm.nms.CraftSlimeChunk;
 import com.grinderwolf.swm.nms.CraftSlimeChunkSection;
 import com.grinderwolf.swm.nms.CraftSlimeWorld;
+import com.grinderwolf.swm.nms.WorldPalette;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
@@ -61,14 +63,11 @@ public class WorldImporter {
         if (!Files.isDirectory(regionDir))
             throw new InvalidWorldException(worldDir);
 
-        Map<Long, SlimeChunk> chunks = new HashMap<>();
+        ChunkMap chunks = new ChunkMap();
         try (Stream<Path> files = Files.list(regionDir)) {
             var iterator = files.filter(path -> path.getFileName().toString().endsWith(".mca")).iterator();
             while (iterator.hasNext()) {
-                loadChunks(iterator.next(), worldVersion).forEach(chunk -> chunks.put(
-                        ((long) chunk.getZ()) * Integer.MAX_VALUE + ((long) chunk.getX()),
-                        chunk
-                ));
+                loadChunks(iterator.next(), worldVersion).forEach(chunk -> chunks.put(ChunkMap.key(chunk.getX(), chunk.getZ()), chunk));
             }
         }
 
@@ -110,6 +109,7 @@ public class WorldImporter {
                 chunks,
                 new CompoundTag("", extraData),
                 maps,
+                new WorldPalette(),
                 worldVersion,
                 propertyMap,
                 false,
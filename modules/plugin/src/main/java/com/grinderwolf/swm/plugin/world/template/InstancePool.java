@@ -0,0 +1,175 @@
+package com.grinderwolf.swm.plugin.world.template;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.grinderwolf.swm.api.exception.CorruptedWorldException;
+import com.grinderwolf.swm.api.exception.NewerFormatException;
+import com.grinderwolf.swm.api.exception.UnknownWorldException;
+import com.grinderwolf.swm.api.exception.WorldInUseException;
+import com.grinderwolf.swm.api.loader.SlimeLoader;
+import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import com.grinderwolf.swm.nms.CraftSlimeWorld;
+import com.grinderwolf.swm.plugin.SWMPlugin;
+import com.grinderwolf.swm.plugin.logging.Logging;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a fixed amount of in-memory instances of a template world ready, so they
+ * can be handed out right away. Instances are prepared in the background, both
+ * when the pool is created and whenever one of them is taken.
+ * <p>
+ * Worlds can only be added to the server from its main thread, so instances
+ * are kept decoded but are only turned into Minecraft worlds once they're taken.
+ */
+public class InstancePool {
+
+    private static final ExecutorService SERVICE = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("SWM Instance Pool Thread #%1$d").setDaemon(true).build());
+
+    @Getter
+    private final SlimeLoader loader;
+    @Getter
+    private final String templateName;
+    @Getter
+    private final int targetSize;
+    private final SlimePropertyMap propertyMap;
+
+    private final Queue<CraftSlimeWorld> instances = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger plannedInstances = new AtomicInteger(); // Ready and being prepared
+    private final AtomicInteger nextInstanceId = new AtomicInteger(1);
+    private volatile boolean closed;
+
+    public InstancePool(SlimeLoader loader, String templateName, int targetSize, SlimePropertyMap propertyMap) {
+        if (targetSize < 0)
+            throw new IllegalArgumentException("The target size cannot be negative!");
+
+        this.loader = loader;
+        this.templateName = templateName;
+        this.targetSize = targetSize;
+        this.propertyMap = propertyMap;
+    }
+
+    /**
+     * Takes a ready instance. If there's none, the template is cloned right away as long as it's cached,
+     * leaving its chunks to be decoded once they're needed. Otherwise the instance is created in the
+     * background, as reading the template would block the caller. Either way, the pool is refilled in
+     * the background.
+     *
+     * @return A future completed with the instance.
+     */
+    public CompletableFuture<CraftSlimeWorld> take() {
+        CraftSlimeWorld instance = instances.poll();
+        CompletableFuture<CraftSlimeWorld> future;
+
+        if (instance != null) {
+            plannedInstances.decrementAndGet();
+            future = CompletableFuture.completedFuture(instance);
+        } else {
+            CraftSlimeWorld template = TemplateCache.getCachedTemplate(loader, templateName);
+
+            if (template != null) {
+                future = CompletableFuture.completedFuture(template.clone(nextInstanceName(), propertyMap));
+            } else {
+                // Queued before the refill, so it doesn't wait for the instances that are going to be kept ready
+                future = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return createInstance();
+                    } catch (UnknownWorldException | IOException | CorruptedWorldException | NewerFormatException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, SERVICE);
+            }
+        }
+
+        refill();
+        return future;
+    }
+
+    /**
+     * Schedules the preparation of as many instances as needed to reach the target size.
+     */
+    public void refill() {
+        while (!closed) {
+            int planned = plannedInstances.get();
+            if (planned >= targetSize)
+                return;
+
+            if (plannedInstances.compareAndSet(planned, planned + 1))
+                SERVICE.execute(this::prepareInstance);
+        }
+    }
+
+    /**
+     * Drops the ready instances, and stops preparing new ones.
+     */
+    public void close() {
+        closed = true;
+        instances.clear();
+    }
+
+    /**
+     * Stops the threads preparing instances. Pools must be closed
+     * before, as instances can't be prepared anymore afterwards.
+     */
+    public static void shutdown() {
+        SERVICE.shutdownNow();
+    }
+
+    public int getReadyInstances() {
+        return instances.size();
+    }
+
+    private void prepareInstance() {
+        if (closed)
+            return;
+
+        try {
+            CraftSlimeWorld instance = createInstance();
+
+            if (!closed) {
+                instances.add(instance);
+                return;
+            }
+        } catch (Exception ex) {
+            // Failed instances are planned again the next time one is taken
+            Logging.error("Failed to prepare an instance of template '%s'!".formatted(templateName), ex);
+        }
+
+        plannedInstances.decrementAndGet();
+    }
+
+    private CraftSlimeWorld createInstance() throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException {
+        CraftSlimeWorld template;
+
+        try {
+            template = TemplateCache.getTemplate(loader, templateName);
+        } catch (WorldInUseException ex) {
+            throw new IllegalStateException(ex); // Templates are read-only, so they're never locked
+        }
+
+        CraftSlimeWorld instance = template.clone(nextInstanceName(), propertyMap);
+
+        // Chunks would be decoded on the main thread otherwise
+        instance.decodeChunks();
+        return instance;
+    }
+
+    private String nextInstanceName() {
+        String name;
+
+        do {
+            name = templateName + "-" + nextInstanceId.getAndIncrement();
+        } while (SWMPlugin.getInstance().getWorld(name) != null);
+
+        return name;
+    }
+
+}
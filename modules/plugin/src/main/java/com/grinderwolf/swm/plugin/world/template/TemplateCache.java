@@ -0,0 +1,260 @@
+package com.grinderwolf.swm.plugin.world.template;
+
+import com.grinderwolf.swm.api.exception.CorruptedWorldException;
+import com.grinderwolf.swm.api.exception.NewerFormatException;
+import com.grinderwolf.swm.api.exception.UnknownWorldException;
+import com.grinderwolf.swm.api.exception.WorldInUseException;
+import com.grinderwolf.swm.api.loader.SlimeLoader;
+import com.grinderwolf.swm.api.world.SlimeChunk;
+import com.grinderwolf.swm.api.world.SlimeChunkSection;
+import com.grinderwolf.swm.api.world.properties.SlimeProperties;
+import com.grinderwolf.swm.api.world.properties.SlimePropertyMap;
+import com.grinderwolf.swm.nms.CraftSlimeWorld;
+import com.grinderwolf.swm.nms.LazySlimeChunk;
+import com.grinderwolf.swm.plugin.SWMPlugin;
+import com.grinderwolf.swm.plugin.config.ConfigManager;
+import com.grinderwolf.swm.plugin.config.MainConfig;
+import com.grinderwolf.swm.plugin.logging.Logging;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the template worlds used by the load-template and clone-world commands in memory,
+ * already decoded and upgraded, so instancing a template doesn't have to read it again.
+ * <p>
+ * Templates are cached along with the content version their loader reported when they were
+ * read, and are read again as soon as the loader reports a different one. The least recently
+ * used templates are dropped once the cached ones exceed the memory budget of the main config.
+ * <p>
+ * Instances share the chunks of their template, so a chunk decoded by any of them is decoded
+ * once for all of them and kept by the template, whose estimated size grows accordingly.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class TemplateCache {
+
+    private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+    // Rough sizes used to estimate how much memory a template takes
+    private static final long NIBBLE_ARRAY_SIZE = 2048;
+    private static final long CHUNK_OVERHEAD = 1024; // Chunk object, height maps and entities
+
+    private static final Map<TemplateKey, CachedTemplate> TEMPLATES = new LinkedHashMap<>(16, 0.75F, true);
+    private static long cachedSize;
+
+    /**
+     * Gets a template world, reading it from its loader if it isn't cached or if it has changed
+     * since it was cached. The returned world is shared, so it must be cloned before being used.
+     *
+     * @param loader    The loader the template is stored in.
+     * @param worldName The name of the template.
+     * @return The template world.
+     */
+    public static CraftSlimeWorld getTemplate(
+            SlimeLoader loader,
+            String worldName
+    ) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException {
+        MainConfig.TemplateCacheConfig config = ConfigManager.getMainConfig().getTemplateCacheConfig();
+        if (!config.isEnabled())
+            return readTemplate(loader, worldName);
+
+        TemplateKey key = new TemplateKey(loader, worldName);
+        String contentVersion;
+
+        try {
+            contentVersion = loader.getContentVersion(worldName);
+        } catch (UnknownWorldException ex) {
+            invalidate(key);
+            throw ex;
+        }
+
+        // Loaders that can't tell when a world changes can't have their worlds cached
+        if (contentVersion == null)
+            return readTemplate(loader, worldName);
+
+        synchronized (TEMPLATES) {
+            CachedTemplate template = TEMPLATES.get(key);
+            if (template != null) {
+                if (template.contentVersion.equals(contentVersion))
+                    return template.world;
+
+                invalidate(key);
+            }
+        }
+
+        CraftSlimeWorld world = readTemplate(loader, worldName);
+        long size = estimateSize(world);
+        long memoryBudget = config.getMemoryBudget() * BYTES_PER_MEGABYTE;
+
+        if (size > memoryBudget) {
+            Logging.warn("Template '%s' takes more memory than the template cache budget, it won't be cached.", worldName);
+            return world;
+        }
+
+        // The template isn't shared yet, so none of its chunks can be decoded before it's cached
+        for (SlimeChunk chunk : world.getChunks().values()) {
+            if (chunk instanceof LazySlimeChunk lazyChunk)
+                lazyChunk.setDecodeListener((frameChunk, decodedChunk) -> chunkDecoded(key, world, decodedChunk));
+        }
+
+        synchronized (TEMPLATES) {
+            CachedTemplate oldTemplate = TEMPLATES.put(key, new CachedTemplate(world, contentVersion, size));
+            if (oldTemplate != null)
+                cachedSize -= oldTemplate.size;
+
+            cachedSize += size;
+            evictTemplates(memoryBudget, world);
+        }
+
+        return world;
+    }
+
+    /**
+     * Adds the block data of a chunk decoded by a template or any of its instances to the size of the
+     * template, as the template keeps it from then on.
+     */
+    private static void chunkDecoded(TemplateKey key, CraftSlimeWorld world, SlimeChunk chunk) {
+        long size = estimateDecodedSize(chunk);
+        long memoryBudget = ConfigManager.getMainConfig().getTemplateCacheConfig().getMemoryBudget() * BYTES_PER_MEGABYTE;
+
+        synchronized (TEMPLATES) {
+            // The template may have been dropped, or replaced by a newer one
+            CachedTemplate template = TEMPLATES.get(key);
+            if (template == null || template.world != world)
+                return;
+
+            template.size += size;
+            cachedSize += size;
+            evictTemplates(memoryBudget, null);
+        }
+    }
+
+    /**
+     * Drops the least recently used templates until the cached ones fit in the memory budget.
+     * Must be called while holding the lock of the cached templates.
+     *
+     * @param memoryBudget The memory budget, in bytes.
+     * @param keptWorld    A template that must not be dropped, or <code>null</code>.
+     */
+    private static void evictTemplates(long memoryBudget, CraftSlimeWorld keptWorld) {
+        // Least recently used templates come first
+        Iterator<CachedTemplate> iterator = TEMPLATES.values().iterator();
+        while (cachedSize > memoryBudget && iterator.hasNext()) {
+            CachedTemplate evictedTemplate = iterator.next();
+            if (evictedTemplate.world == keptWorld)
+                continue;
+
+            cachedSize -= evictedTemplate.size;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Gets a template world only if it's cached already, without asking its loader whether it has changed
+     * since, so no I/O is done. The returned world is shared, so it must be cloned before being used.
+     *
+     * @param loader    The loader the template is stored in.
+     * @param worldName The name of the template.
+     * @return The cached template world, or <code>null</code> if it isn't cached.
+     */
+    public static CraftSlimeWorld getCachedTemplate(SlimeLoader loader, String worldName) {
+        synchronized (TEMPLATES) {
+            CachedTemplate template = TEMPLATES.get(new TemplateKey(loader, worldName));
+            return template != null ? template.world : null;
+        }
+    }
+
+    /**
+     * Drops a template from the cache, if it's cached.
+     *
+     * @param loader    The loader the template is stored in.
+     * @param worldName The name of the template.
+     */
+    public static void invalidate(SlimeLoader loader, String worldName) {
+        invalidate(new TemplateKey(loader, worldName));
+    }
+
+    private static void invalidate(TemplateKey key) {
+        synchronized (TEMPLATES) {
+            CachedTemplate template = TEMPLATES.remove(key);
+            if (template != null)
+                cachedSize -= template.size;
+        }
+    }
+
+    private static CraftSlimeWorld readTemplate(
+            SlimeLoader loader,
+            String worldName
+    ) throws UnknownWorldException, IOException, CorruptedWorldException, NewerFormatException, WorldInUseException {
+        // Templates keep their chunks compressed until an instance needs them
+        SlimePropertyMap propertyMap = new SlimePropertyMap();
+        propertyMap.setValue(SlimeProperties.LAZY_CHUNKS, true);
+
+        return SWMPlugin.getInstance().readWorld(loader, worldName, true, propertyMap);
+    }
+
+    private static long estimateSize(CraftSlimeWorld world) {
+        long size = 0;
+
+        for (SlimeChunk chunk : world.getChunks().values()) {
+            size += CHUNK_OVERHEAD;
+
+            // Lazy chunks keep their frame even once they've been decoded
+            if (chunk instanceof LazySlimeChunk lazyChunk) {
+                size += lazyChunk.getCompressedFrame().length;
+
+                // Don't decode the chunk just to measure it
+                if (!lazyChunk.isDecoded())
+                    continue;
+            }
+
+            size += estimateDecodedSize(chunk);
+        }
+
+        return size;
+    }
+
+    private static long estimateDecodedSize(SlimeChunk chunk) {
+        long size = (long) chunk.getBiomes().length * Integer.BYTES;
+
+        for (SlimeChunkSection section : chunk.getSections()) {
+            if (section == null)
+                continue;
+
+            if (section.blockStates() != null)
+                size += (long) section.blockStates().length * Long.BYTES;
+
+            if (section.blocks() != null)
+                size += section.blocks().length + NIBBLE_ARRAY_SIZE;
+
+            if (section.blockLight() != null)
+                size += NIBBLE_ARRAY_SIZE;
+
+            if (section.skyLight() != null)
+                size += NIBBLE_ARRAY_SIZE;
+        }
+
+        return size;
+    }
+
+    private record TemplateKey(SlimeLoader loader, String worldName) { }
+
+    private static final class CachedTemplate {
+
+        private final CraftSlimeWorld world;
+        private final String contentVersion;
+        private long size; // Grows as chunks get decoded, guarded by the lock of the cached templates
+
+        private CachedTemplate(CraftSlimeWorld world, String contentVersion, long size) {
+            this.world = world;
+            this.contentVersion = contentVersion;
+            this.size = size;
+        }
+
+    }
+
+}
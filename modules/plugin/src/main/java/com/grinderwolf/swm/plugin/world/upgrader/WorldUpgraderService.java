@@ -18,6 +18,8 @@ public class WorldUpgraderService {
 
     public static void upgradeWorld(CraftSlimeWorld world) {
         byte serverVersion = SWMPlugin.getInstance().getPlatform().getWorldVersion();
+        world.decodeChunks(); // Upgraders rewrite every chunk anyway
+
         for (byte version = (byte) (world.getVersion() + 1); version <= serverVersion; version++) {
             WorldUpgrader upgrader = UPGRADERS.get(version);
             if (upgrader == null) {